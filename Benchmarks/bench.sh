@@ -0,0 +1,51 @@
+#!/bin/bash
+# Runs the JMH suite with the GC profiler (allocation per op) and compares the
+# results against the stored baseline.
+#   ./bench.sh                  run everything, compare with baseline.csv
+#   ./bench.sh baseline         run everything and store it as the new baseline.csv
+#   ./bench.sh [baseline] Room  extra arguments go to JMH (e.g. a benchmark regex)
+# Baselines are only comparable when taken on the same machine and JDK.
+cd "$(dirname "$0")"
+THRESHOLD=${THRESHOLD:-10} # <-- percent slower (or more bytes/op) that gets flagged
+ALLOC_FLOOR=${ALLOC_FLOOR:-1} # <-- bytes/op an allocation has to grow by before the percentage counts
+SAVE=0
+if [ "$1" = "baseline" ]; then
+	SAVE=1
+	shift
+fi
+mvn -B -q package || exit 1
+java -jar target/benchmarks.jar -prof gc -rf csv -rff target/results.csv "$@" || exit 1
+if [ $SAVE = 1 ]; then
+	cp target/results.csv baseline.csv
+	echo "Saved baseline.csv"
+	exit 0
+fi
+if [ ! -f baseline.csv ]; then
+	echo "No baseline.csv yet, run ./bench.sh baseline on the reference machine first"
+	exit 0
+fi
+# key: benchmark + params; only the time per op and the normalized allocation rows.
+# A time only counts as slower if the gap is also bigger than both runs' score
+# errors, and an allocation only if it grew by at least ALLOC_FLOOR bytes/op, so
+# noise and near-zero rows (where 0.001 -> 0.002 is +100%) aren't flagged
+awk -F, -v threshold="$THRESHOLD" -v floor="$ALLOC_FLOOR" '
+	function key() { k = $1; for (i = 8; i <= NF; i++) k = k "," $i; return k }
+	function wanted() { return $1 !~ /:/ || $1 ~ /alloc\.rate\.norm/ }
+	FNR == 1 { next }
+	{ gsub(/"/, "") }
+	NR == FNR { if (wanted()) { base[key()] = $5; error[key()] = $6 } next }
+	wanted() && (key() in base) {
+		old = base[key()]
+		diff = $5 - old
+		delta = old == 0 ? 0 : diff * 100 / old
+		if ($1 ~ /alloc\.rate\.norm/) {
+			slower = diff >= floor && (old == 0 || delta > threshold)
+		} else {
+			slower = delta > threshold && diff > error[key()] + $6
+		}
+		flag = slower ? "  <-- REGRESSION" : ""
+		if (flag != "") regressions++
+		printf "%-90s %12.3f -> %12.3f %-8s %+7.1f%%%s\n", key(), old, $5, $7, delta, flag
+	}
+	END { if (regressions) { print regressions " regression(s) over " threshold "%"; exit 1 } }
+' baseline.csv target/results.csv
@@ -0,0 +1,74 @@
+package Project.Common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of checking every chat message for a command: the CommandRegistry
+ * against the split-based parsing rooms used before. Run with -prof gc to see
+ * that ordinary text allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParseBenchmark {
+    @Param({ "chat", "command", "unknown" })
+    public String kind;
+
+    private CommandRegistry<Blackhole> registry;
+    private String text;
+
+    @Setup
+    public void setup() {
+        registry = new CommandRegistry<Blackhole>();
+        for (String name : new String[] { "help", "kick", "mute", "unmute", "topic", "ready", "w" }) {
+            registry.register(Blackhole::consume, name);
+        }
+        switch (kind) {
+            case "command":
+                text = "/mute someone";
+                break;
+            case "unknown":
+                text = "/shrug oh well";
+                break;
+            default:
+                text = "hello everyone, who's up for another round?";
+                break;
+        }
+    }
+
+    @Benchmark
+    public boolean registry(Blackhole bh) {
+        return registry.dispatch(bh, text);
+    }
+
+    /**
+     * What Room.processCommands did for every message
+     */
+    @Benchmark
+    public boolean splitBaseline(Blackhole bh) {
+        if (text.startsWith("/")) {
+            String[] comm = text.split("/");
+            String part1 = comm[1];
+            String[] comm2 = part1.split(" ");
+            bh.consume(comm2[0]);
+            return true;
+        }
+        return false;
+    }
+}
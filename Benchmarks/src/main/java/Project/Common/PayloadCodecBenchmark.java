@@ -0,0 +1,86 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode/decode cost of each Payload subtype with each codec
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadCodecBenchmark {
+    @Param({ "serialized", "binary" })
+    public String codecName;
+
+    @Param({ "MESSAGE", "CONNECT", "READY", "LIST_ROOMS" })
+    public String type;
+
+    private PayloadCodec codec;
+    private Payload payload;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = codecName.equals("binary") ? new BinaryPayloadCodec() : new SerializedPayloadCodec();
+        switch (PayloadType.valueOf(type)) {
+            case CONNECT:
+                ConnectionPayload cp = new ConnectionPayload(true);
+                cp.setClientId(42);
+                cp.setClientName("benchmark-user");
+                cp.setMessage("connected");
+                payload = cp;
+                break;
+            case READY:
+                ReadyPayload rp = new ReadyPayload();
+                rp.setClientId(42);
+                rp.setReady(true);
+                payload = rp;
+                break;
+            case LIST_ROOMS:
+                RoomResultsPayload rrp = new RoomResultsPayload();
+                List<String> rooms = new ArrayList<String>();
+                for (int i = 0; i < 10; i++) {
+                    rooms.add("room-" + i);
+                }
+                rrp.setRooms(rooms);
+                payload = rrp;
+                break;
+            default:
+                Payload p = new Payload();
+                p.setPayloadType(PayloadType.MESSAGE);
+                p.setClientId(42);
+                p.setMessage("hello everyone, this is a typical chat line");
+                payload = p;
+                break;
+        }
+        encoded = codec.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(payload);
+    }
+
+    @Benchmark
+    public Payload decode() throws IOException {
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
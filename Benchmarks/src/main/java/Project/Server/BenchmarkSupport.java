@@ -0,0 +1,54 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import Project.Common.PayloadCodec;
+
+/**
+ * Shared fixtures for the Server benchmarks
+ */
+public abstract class BenchmarkSupport {
+    /**
+     * Rooms log every message at INFO, which would dwarf what we're measuring
+     */
+    public static void quietLogging() {
+        Logger root = Logger.getLogger("");
+        root.setLevel(Level.OFF);
+        for (Handler h : root.getHandlers()) {
+            h.setLevel(Level.OFF);
+        }
+    }
+
+    /**
+     * A session without a socket; whatever is sent to it stays in its outbound
+     * queue until drain() is called
+     */
+    public static ServerThread recipient(long clientId) {
+        ServerThread st = new ServerThread((Socket) null);
+        st.setClientName("bench-" + clientId);
+        st.setClientId(clientId);
+        return st;
+    }
+
+    /**
+     * Empties each recipient's queue the way a writer would, encoding every frame
+     * (shared frames are only encoded once)
+     *
+     * @return number of bytes "written"
+     */
+    public static long drain(List<ServerThread> recipients, PayloadCodec codec) throws IOException {
+        long bytes = 0;
+        for (ServerThread st : recipients) {
+            OutboundFrame frame;
+            while ((frame = st.getOutbound().poll()) != null) {
+                bytes += frame.encodedFor(codec, null).length;
+            }
+        }
+        return bytes;
+    }
+}
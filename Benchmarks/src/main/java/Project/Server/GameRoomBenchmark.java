@@ -0,0 +1,69 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Project.Common.BinaryPayloadCodec;
+import Project.Common.PayloadCodec;
+
+/**
+ * Ready state sync in a GameRoom: one player's update, and the everyone-resets
+ * loop GameRoom.end() runs. Both go through the room's mailbox, drained on the
+ * calling thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameRoomBenchmark {
+    @Param({ "10", "100" })
+    public int players;
+
+    private final PayloadCodec codec = new BinaryPayloadCodec();
+    private GameRoom room;
+    private List<ServerThread> members;
+    private List<ServerPlayer> serverPlayers;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.quietLogging();
+        room = new GameRoom("game", Runnable::run);
+        members = new ArrayList<ServerThread>();
+        serverPlayers = new ArrayList<ServerPlayer>();
+        for (int i = 1; i <= players; i++) {
+            ServerThread st = BenchmarkSupport.recipient(i);
+            members.add(st);
+            room.addClient(st);
+            serverPlayers.add(new ServerPlayer(st));
+            BenchmarkSupport.drain(members, codec);
+        }
+    }
+
+    @Benchmark
+    public long syncReadyState() throws IOException {
+        room.execute(() -> room.syncReadyState(serverPlayers.get(0)));
+        return BenchmarkSupport.drain(members, codec);
+    }
+
+    @Benchmark
+    public long syncAllReadyStates() throws IOException {
+        room.execute(() -> room.batch(() -> serverPlayers.forEach(room::syncReadyState)));
+        return BenchmarkSupport.drain(members, codec);
+    }
+}
@@ -0,0 +1,63 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Project.Common.BinaryPayloadCodec;
+import Project.Common.PayloadCodec;
+
+/**
+ * Room.sendMessage to N socketless members, including draining and encoding
+ * what each member's writer would send. The room's mailbox drains on the
+ * calling thread so the measured time includes running the event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomFanOutBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int recipients;
+
+    private final PayloadCodec codec = new BinaryPayloadCodec();
+    private Room room;
+    private ServerThread sender;
+    private List<ServerThread> members;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.quietLogging();
+        room = new Room("fanout", Runnable::run);
+        members = new ArrayList<ServerThread>();
+        for (int i = 1; i <= recipients; i++) {
+            ServerThread st = BenchmarkSupport.recipient(i);
+            members.add(st);
+            room.addClient(st);
+            // joins notify everyone already there, keep the queues from overflowing
+            BenchmarkSupport.drain(members, codec);
+        }
+        sender = members.get(0);
+    }
+
+    @Benchmark
+    public long sendMessage() throws IOException {
+        room.sendMessage(sender, "hello everyone, this is a typical chat line");
+        return BenchmarkSupport.drain(members, codec);
+    }
+}
@@ -0,0 +1,71 @@
+package Project.Server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Project.Common.RoomSort;
+
+/**
+ * Room lookup and search against a Server holding many rooms. Server is a
+ * singleton, so each fork (one per param value) populates it once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomLookupBenchmark {
+    @Param({ "10000", "100000" })
+    public int rooms;
+
+    private String hit;
+    private String prefix;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        for (int i = 0; i < rooms; i++) {
+            Server.INSTANCE.createNewRoom("room-" + i);
+        }
+        hit = "ROOM-" + (rooms - 1);// <-- worst case for a scan, and not the stored case
+        prefix = "room-" + (rooms / 2);
+        Server.INSTANCE.refreshRoomDirectory();// <-- don't wait for the refresher to pick them up
+    }
+
+    @Benchmark
+    public Room getRoomHit() {
+        return Server.INSTANCE.getRoom(hit);
+    }
+
+    @Benchmark
+    public Room getRoomMiss() {
+        return Server.INSTANCE.getRoom("no-such-room");
+    }
+
+    @Benchmark
+    public RoomDirectory.Page listRoomsNoMatch() {
+        return Server.INSTANCE.listRooms("zzz", RoomSort.NAME, null, 10);
+    }
+
+    @Benchmark
+    public RoomDirectory.Page listRoomsPageByOccupancy() {
+        return Server.INSTANCE.listRooms("", RoomSort.OCCUPANCY, null, 10);
+    }
+
+    @Benchmark
+    public RoomDirectory.Page listRoomsPagePrefix() {
+        return Server.INSTANCE.listRooms(prefix, RoomSort.NAME, null, 10);
+    }
+}
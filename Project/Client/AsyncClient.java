@@ -0,0 +1,347 @@
+package Project.Client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import Project.Common.BinaryPayloadCodec;
+import Project.Common.ConnectionPayload;
+import Project.Common.Constants;
+import Project.Common.FrameCompressor;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.PayloadType;
+import Project.Common.RoomResultsPayload;
+import Project.Common.RoomSort;
+import Project.Common.WireProtocol;
+
+/**
+ * Non-blocking client for bots and integrations.
+ * <p>
+ * Unlike the console Client this isn't a singleton, so one process can hold
+ * many connections. Every request gets a requestId and returns a
+ * CompletableFuture that the reader thread completes when the server's reply
+ * carrying the same id arrives, so any number of requests can be in flight on
+ * one connection. Payloads that aren't replies (room messages, connection
+ * status, etc.) go to the listener.
+ * </p>
+ * Replies only arrive from servers that support correlation; against an older
+ * server the futures time out after REQUEST_TIMEOUT_MS.
+ */
+public class AsyncClient implements AutoCloseable {
+    public static final long REQUEST_TIMEOUT_MS = 10_000;
+    private static final int SERVER_TIMEOUT_MS = 45_000;// <-- see Client.SERVER_TIMEOUT_MS
+
+    /**
+     * The server answered a request with an error message instead of the
+     * expected reply
+     */
+    public static class RequestFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final transient Payload reply;// <-- payloads aren't guaranteed to serialize
+
+        public RequestFailedException(Payload reply) {
+            super(reply.getMessage());
+            this.reply = reply;
+        }
+
+        /**
+         * null if the exception was deserialized
+         */
+        public Payload getReply() {
+            return reply;
+        }
+    }
+
+    private final String clientName;
+    private Socket server;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private PayloadCodec codec;
+    private FrameCompressor compressor;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<Payload>> pending = new ConcurrentHashMap<Long, CompletableFuture<Payload>>();
+    private final CompletableFuture<Long> clientId = new CompletableFuture<Long>();
+    private volatile Consumer<Payload> listener = p -> {
+    };
+    private volatile boolean isRunning = false;
+    private Logger logger = Logger.getLogger(AsyncClient.class.getName());
+
+    public AsyncClient(String clientName) {
+        this.clientName = clientName;
+    }
+
+    /**
+     * Receives every payload that isn't a reply to one of our requests; called on
+     * the reader thread so it should be quick
+     */
+    public void setListener(Consumer<Payload> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Connects and handshakes (blocking), then sends CONNECT
+     *
+     * @return completes with our client id once the server admits us to the lobby
+     */
+    public CompletableFuture<Long> connect(String address, int port) throws IOException {
+        server = new Socket(address, port);
+        server.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+        out.write(WireProtocol.handshake(BinaryPayloadCodec.ID, true));
+        out.flush();
+        byte[] reply = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        in.readFully(reply);
+        if (!WireProtocol.isHandshake(reply) || WireProtocol.codecFor(WireProtocol.codecId(reply)) == null) {
+            server.close();
+            throw new IOException("Server sent an invalid handshake");
+        }
+        codec = WireProtocol.codecFor(WireProtocol.codecId(reply));
+        compressor = WireProtocol.isCompressed(reply)
+                ? new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD, FrameCompressor.DEFAULT_LEVEL)
+                : null;
+        if (WireProtocol.supportsHeartbeat(reply)) {
+            server.setSoTimeout(SERVER_TIMEOUT_MS);
+        }
+        isRunning = true;
+        Thread.ofVirtual().name("async-client-" + clientName).start(this::readLoop);
+        ConnectionPayload cp = new ConnectionPayload(true);
+        cp.setClientName(clientName);
+        send(cp);
+        return clientId;
+    }
+
+    public boolean isConnected() {
+        return isRunning;
+    }
+
+    /**
+     * Sends a payload with a fresh requestId
+     *
+     * @return completes with the server's reply, or exceptionally on timeout or
+     *         disconnect
+     */
+    public CompletableFuture<Payload> request(Payload p) {
+        long id = nextRequestId.getAndIncrement();
+        p.setRequestId(id);
+        CompletableFuture<Payload> future = new CompletableFuture<Payload>();
+        pending.put(id, future);
+        future.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((r, e) -> pending.remove(id));
+        try {
+            send(p);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @param limit 1-100, same as the server enforces
+     * @return the matching room names
+     */
+    public CompletableFuture<List<String>> listRooms(String searchString, int limit) {
+        return listRooms(searchString, RoomSort.NAME, null, limit).thenApply(RoomResultsPayload::getRooms);
+    }
+
+    /**
+     * One page of rooms with their member counts and phases
+     *
+     * @param cursor getCursor() of the previous page, null for the first
+     * @param limit  1-100, same as the server enforces
+     * @return the page; its getCursor() is null on the last one
+     */
+    public CompletableFuture<RoomResultsPayload> listRooms(String searchString, RoomSort sort, String cursor,
+            int limit) {
+        if (limit < 1 || limit > 100) {
+            // servers before cursors send an invalid limit reply that looks like no results
+            return CompletableFuture.failedFuture(new IllegalArgumentException("limit must be between 1-100"));
+        }
+        RoomResultsPayload p = new RoomResultsPayload();
+        p.setMessage(searchString);
+        p.setLimit(limit);
+        p.setSort(sort);
+        p.setCursor(cursor);
+        return request(p).thenApply(reply -> {
+            if (!(reply instanceof RoomResultsPayload) || ((RoomResultsPayload) reply).getRooms() == null) {
+                throw new CompletionException(new RequestFailedException(reply));
+            }
+            return (RoomResultsPayload) reply;
+        });
+    }
+
+    /**
+     * @return completes with the joined room's name
+     */
+    public CompletableFuture<String> joinRoom(String roomName) {
+        return roomRequest(PayloadType.JOIN_ROOM, roomName);
+    }
+
+    /**
+     * Creates and joins a room
+     *
+     * @return completes with the joined room's name
+     */
+    public CompletableFuture<String> createRoom(String roomName) {
+        return roomRequest(PayloadType.CREATE_ROOM, roomName);
+    }
+
+    private CompletableFuture<String> roomRequest(PayloadType type, String roomName) {
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        p.setMessage(roomName);
+        return request(p).thenApply(reply -> {
+            if (reply.getPayloadType() != PayloadType.JOIN_ROOM) {
+                throw new CompletionException(new RequestFailedException(reply));
+            }
+            return reply.getMessage();
+        });
+    }
+
+    /**
+     * Private message to one client by id
+     *
+     * @return completes with the server's confirmation copy
+     */
+    public CompletableFuture<Payload> whisper(long clientId, String message) {
+        return whisper(clientId, null, message);
+    }
+
+    /**
+     * Private message to one client by name (case-insensitive); fails if no one
+     * or more than one client uses it
+     *
+     * @return completes with the server's confirmation copy
+     */
+    public CompletableFuture<Payload> whisper(String clientName, String message) {
+        return whisper(Constants.DEFAULT_CLIENT_ID, clientName, message);
+    }
+
+    private CompletableFuture<Payload> whisper(long clientId, String clientName, String message) {
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.WHISPER);
+        cp.setClientId(clientId);
+        cp.setClientName(clientName);
+        cp.setMessage(message);
+        return request(cp).thenApply(reply -> {
+            if (reply.getPayloadType() != PayloadType.WHISPER) {
+                throw new CompletionException(new RequestFailedException(reply));
+            }
+            return reply;
+        });
+    }
+
+    /**
+     * Completes once the server has handed the message to the room
+     */
+    public CompletableFuture<Payload> sendMessage(String message) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.MESSAGE);
+        p.setMessage(message);
+        return request(p);
+    }
+
+    /**
+     * @return completes with the round trip time in nanoseconds
+     */
+    public CompletableFuture<Long> ping() {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.PING);
+        long start = System.nanoTime();
+        return request(p).thenApply(reply -> System.nanoTime() - start);
+    }
+
+    /**
+     * Fire and forget; without a requestId the server won't acknowledge it
+     */
+    public void post(Payload p) throws IOException {
+        send(p);
+    }
+
+    private void send(Payload p) throws IOException {
+        byte[] body = codec.encode(p);
+        writeLock.lock();
+        try {
+            out.write(compressor != null ? compressor.frame(body) : WireProtocol.frame(body));
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (isRunning) {
+                byte[] frame = WireProtocol.readFrame(in, compressor);
+                Payload p = codec.decode(frame, 0, frame.length);
+                CompletableFuture<Payload> future = p.getRequestId() != 0 ? pending.remove(p.getRequestId())
+                        : null;
+                if (future != null) {
+                    future.complete(p);
+                    // replies like JOIN_ROOM also change state the listener may track
+                    if (p.getPayloadType() == PayloadType.PONG) {
+                        continue;
+                    }
+                }
+                switch (p.getPayloadType()) {
+                    case CLIENT_ID:
+                        clientId.complete(p.getClientId());
+                        break;
+                    case PING:
+                        Payload pong = new Payload();
+                        pong.setPayloadType(PayloadType.PONG);
+                        send(pong);
+                        continue;
+                    case PONG:
+                        continue;
+                    default:
+                        break;
+                }
+                listener.accept(p);
+            }
+        } catch (Exception e) {// <-- IOException or a listener that threw, either way we're done
+            if (isRunning) {
+                logger.info(String.format("AsyncClient[%s]: connection lost: %s", clientName, e));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the socket and fails anything still waiting on a reply
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            logger.info("Socket already closed");
+        }
+        if (compressor != null) {
+            compressor.close();
+        }
+        IOException closed = new IOException("Connection closed");
+        pending.values().forEach(f -> f.completeExceptionally(closed));
+        pending.clear();
+        clientId.completeExceptionally(closed);
+    }
+}
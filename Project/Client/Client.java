@@ -1,8 +1,10 @@
 package Project.Client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -11,40 +13,50 @@ import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+import Project.Common.BinaryPayloadCodec;
+import Project.Common.CommandRegistry;
 import Project.Common.ConnectionPayload;
 import Project.Common.Constants;
+import Project.Common.FrameCompressor;
+import Project.Common.HistoryPayload;
 import Project.Common.Payload;
+import Project.Common.PayloadCodec;
 import Project.Common.PayloadType;
 import Project.Common.Phase;
 import Project.Common.ReadyPayload;
 import Project.Common.RoomResultsPayload;
+import Project.Common.RoomSort;
 import Project.Common.TextFX;
 import Project.Common.TextFX.Color;
+import Project.Common.WireProtocol;
 
 public enum Client {
     INSTANCE;
 
     Socket server = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
-    final String ipAddressPattern = "/connect\\s+(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}:\\d{3,5})";
-    final String localhostPattern = "/connect\\s+(localhost:\\d{3,5})";
+    DataOutputStream out = null;
+    DataInputStream in = null;
+    PayloadCodec codec = null;// <-- agreed on with the server during the handshake
+    FrameCompressor compressor = null;// <-- null unless the server agreed to compress
     boolean isRunning = false;
     private Thread inputThread;
     private Thread fromServerThread;
     private String clientName = "";
 
-    private static final String CREATE_ROOM = "/createroom";
-    private static final String JOIN_ROOM = "/joinroom";
-    private static final String LIST_ROOMS = "/listrooms";
-    private static final String LIST_USERS = "/users";
-    private static final String DISCONNECT = "/disconnect";
-    private static final String READY_CHECK = "/ready";
+    /**
+     * The server pings quiet connections (every 15s by default), so this much
+     * silence means it's gone
+     */
+    private static final int SERVER_TIMEOUT_MS = 45_000;
 
     // client id, is the key, client name is the value
     // private ConcurrentHashMap<Long, String> clientsInRoom = new
     // ConcurrentHashMap<Long, String>();
     private ConcurrentHashMap<Long, ClientPlayer> clientsInRoom = new ConcurrentHashMap<Long, ClientPlayer>();
+    // remembered so /morerooms can ask for the next page of the same listing
+    private String lastRoomSearch = "";
+    private RoomSort lastRoomSort = RoomSort.NAME;
+    private volatile String nextRoomsCursor = null;// <-- set by the reader thread
     private long myClientId = Constants.DEFAULT_CLIENT_ID;
     private Logger logger = Logger.getLogger(Client.class.getName());
     private Phase currentPhase = Phase.READY;
@@ -58,6 +70,8 @@ public enum Client {
         // Note: these check the client's end of the socket connect; therefore they
         // don't really help determine
         // if the server had a problem
+        // (a server that supports heartbeats is covered by the read timeout set in
+        // handshake(), the listener closes the socket once it trips)
         return server.isConnected() && !server.isClosed() && !server.isInputShutdown() && !server.isOutputShutdown();
 
     }
@@ -73,9 +87,10 @@ public enum Client {
         try {
             server = new Socket(address, port);
             // channel to send to server
-            out = new ObjectOutputStream(server.getOutputStream());
+            out = new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
             // channel to listen to server
-            in = new ObjectInputStream(server.getInputStream());
+            in = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+            handshake(BinaryPayloadCodec.ID);
             logger.info("Client connected");
             listenForServerMessage();
             sendConnect();
@@ -88,161 +103,252 @@ public enum Client {
     }
 
     /**
-     * <p>
-     * Check if the string contains the <i>connect</i> command
-     * followed by an ip address and port or localhost and port.
-     * </p>
-     * <p>
-     * Example format: 123.123.123:3000
-     * </p>
-     * <p>
-     * Example format: localhost:3000
-     * </p>
-     * https://www.w3schools.com/java/java_regex.asp
+     * Sends our preferred codec (asking for compression) and waits for the server
+     * to tell us which codec it accepted and whether it agreed to compress
      * 
-     * @param text
-     * @return
+     * @param codecId
+     * @throws IOException if the server didn't answer with a valid handshake
      */
-    private boolean isConnection(String text) {
-        // https://www.w3schools.com/java/java_regex.asp
-        return text.matches(ipAddressPattern)
-                || text.matches(localhostPattern);
+    private void handshake(byte codecId) throws IOException {
+        out.write(WireProtocol.handshake(codecId, true));
+        out.flush();
+        byte[] reply = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        in.readFully(reply);
+        if (!WireProtocol.isHandshake(reply) || WireProtocol.codecFor(WireProtocol.codecId(reply)) == null) {
+            throw new IOException("Server sent an invalid handshake");
+        }
+        codec = WireProtocol.codecFor(WireProtocol.codecId(reply));
+        if (WireProtocol.supportsHeartbeat(reply)) {
+            server.setSoTimeout(SERVER_TIMEOUT_MS);
+        }
+        compressor = WireProtocol.isCompressed(reply)
+                ? new FrameCompressor(FrameCompressor.DEFAULT_THRESHOLD, FrameCompressor.DEFAULT_LEVEL)
+                : null;
+        logger.info("Using codec " + codec.getClass().getSimpleName()
+                + (compressor != null ? " with compression" : ""));
     }
 
-    private boolean isQuit(String text) {
-        return text.equalsIgnoreCase("/quit");
+    /**
+     * Client side commands; anything else (including /commands the server
+     * handles, like /kick or /topic) is sent as a message. Add more here as
+     * needed.
+     */
+    private static final CommandRegistry<Client> COMMANDS = new CommandRegistry<Client>()
+            .register((c, args) -> c.connectCommand(args), "connect")// <-- /connect host:port
+            .register((c, args) -> c.isRunning = false, "quit")
+            .register((c, args) -> c.nameCommand(args), "name")
+            .register((c, args) -> c.sendOrLog(() -> c.sendCreateRoom(args)), "createroom")
+            .register((c, args) -> c.sendOrLog(() -> c.sendJoinRoom(args)), "joinroom")
+            .register((c, args) -> c.listRoomsCommand(args), "listrooms")// <-- /listrooms [search] [@name|@occupancy|@phase]
+            .register((c, args) -> c.moreRoomsCommand(), "morerooms")// <-- next page of the last /listrooms
+            .register((c, args) -> c.listUsersCommand(), "users")
+            .register((c, args) -> c.sendOrLog(c::sendDisconnect), "disconnect")
+            .register((c, args) -> c.whisperCommand(args), "w")// <-- /w name message, or /w #id message
+            .register((c, args) -> c.sendOrLog(c::sendReadyCheck), "ready");
+
+    private interface Send {
+        void send() throws IOException;
     }
 
-    private boolean isName(String text) {
-        if (text.startsWith("/name")) {
-            String[] parts = text.split(" ");
-            if (parts.length >= 2) {
-                clientName = parts[1].trim();
-                logger.info("Name set to " + clientName);
-            }
-            return true;
+    private void sendOrLog(Send send) {
+        try {
+            send.send();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return false;
     }
 
     /**
-     * Controller for handling various text commands.
      * <p>
-     * Add more here as needed
+     * Connects to an ip address and port or localhost and port.
+     * </p>
+     * <p>
+     * Example format: 123.123.123.123:3000
+     * </p>
+     * <p>
+     * Example format: localhost:3000
      * </p>
-     * 
-     * @param text
-     * @return true if a text was a command or triggered a command
      */
-    private boolean processClientCommand(String text) {
-        if (isConnection(text)) {
-            if (clientName.isBlank()) {
-                logger.warning("You must set your name before you can connect via: /name your_name");
-                return true;
-            }
-            // replaces multiple spaces with single space
-            // splits on the space after connect (gives us host and port)
-            // splits on : to get host as index 0 and port as index 1
-            String[] parts = text.trim().replaceAll(" +", " ").split(" ")[1].split(":");
-            connect(parts[0].trim(), Integer.parseInt(parts[1].trim()));
-            return true;
-        } else if (isQuit(text)) {
-            isRunning = false;
-            return true;
-        } else if (isName(text)) {
-            return true;
-        } else if (text.startsWith(CREATE_ROOM)) {
+    private void connectCommand(String address) {
+        int colon = address.lastIndexOf(':');
+        String host = colon > 0 ? address.substring(0, colon) : "";
+        String port = colon > 0 ? address.substring(colon + 1) : "";
+        if (!(host.equalsIgnoreCase("localhost") || isIpAddress(host)) || !isDigits(port, 3, 5)) {
+            logger.warning("Usage: /connect host:port (an ip address or localhost)");
+            return;
+        }
+        if (clientName.isBlank()) {
+            logger.warning("You must set your name before you can connect via: /name your_name");
+            return;
+        }
+        connect(host, Integer.parseInt(port));
+    }
 
-            try {
-                String roomName = text.replace(CREATE_ROOM, "").trim();
-                sendCreateRoom(roomName);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Four dot separated groups of 1-3 digits
+     */
+    private static boolean isIpAddress(String host) {
+        int groups = 0;
+        int start = 0;
+        for (int i = 0; i <= host.length(); i++) {
+            if (i == host.length() || host.charAt(i) == '.') {
+                if (!isDigits(host.substring(start, i), 1, 3)) {
+                    return false;
+                }
+                groups++;
+                start = i + 1;
             }
-            return true;
-        } else if (text.startsWith(JOIN_ROOM)) {
+        }
+        return groups == 4;
+    }
 
-            try {
-                String roomName = text.replace(JOIN_ROOM, "").trim();
-                sendJoinRoom(roomName);
-            } catch (IOException e) {
-                e.printStackTrace();
+    private static boolean isDigits(String text, int min, int max) {
+        if (text.length() < min || text.length() > max) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
             }
-            return true;
-        } else if (text.startsWith(LIST_ROOMS)) {
+        }
+        return true;
+    }
 
-            try {
-                String searchQuery = text.replace(LIST_ROOMS, "").trim();
-                sendListRooms(searchQuery);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return true;
-        } else if (text.equalsIgnoreCase(LIST_USERS)) {
-            logger.info("Users in Room: ");
-            clientsInRoom.forEach(((t, u) -> {
-                logger.info(String.format("%s - %s", t, u));
-            }));
-            return true;
+    private void nameCommand(String args) {
+        int space = args.indexOf(' ');
+        String name = space > -1 ? args.substring(0, space) : args;
+        if (!name.isEmpty()) {
+            clientName = name;
+            logger.info("Name set to " + clientName);
         }
-        else if (text.equalsIgnoreCase(DISCONNECT)) {
+    }
+
+    private void listRoomsCommand(String searchQuery) {
+        RoomSort sort = RoomSort.NAME;
+        int at = searchQuery.lastIndexOf('@');
+        if (at > -1) {
             try {
-                sendDisconnect();
+                sort = RoomSort.valueOf(searchQuery.substring(at + 1).trim().toUpperCase());
+                searchQuery = searchQuery.substring(0, at).trim();
+            } catch (IllegalArgumentException e) {
+                // not a sort option, it's part of the search
             }
-            catch(Exception e){
-              e.printStackTrace(); 
-            }
-            return true;
         }
-        else if (text.equalsIgnoreCase(READY_CHECK)) {
-            try {
-                sendReadyCheck();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            return true;
+        lastRoomSearch = searchQuery;
+        lastRoomSort = sort;
+        String search = searchQuery;
+        RoomSort order = sort;
+        sendOrLog(() -> sendListRooms(search, order, null));
+    }
+
+    private void moreRoomsCommand() {
+        String cursor = nextRoomsCursor;
+        if (cursor == null) {
+            logger.info("No more rooms, use /listrooms to start over");
+            return;
         }
-        return false;
+        sendOrLog(() -> sendListRooms(lastRoomSearch, lastRoomSort, cursor));
+    }
+
+    private void listUsersCommand() {
+        logger.info("Users in Room: ");
+        clientsInRoom.forEach(((t, u) -> {
+            logger.info(String.format("%s - %s", t, u));
+        }));
+    }
+
+    private void whisperCommand(String args) {
+        int space = args.indexOf(' ');
+        String message = space > -1 ? args.substring(space + 1).trim() : "";
+        if (message.isEmpty()) {
+            logger.warning("Usage: /w name message (or /w #id message)");
+            return;
+        }
+        String target = args.substring(0, space);
+        try {
+            sendWhisper(target, message);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid client id " + target);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the text's client side command, if it is one
+     * 
+     * @param text
+     * @return true if a text was a command or triggered a command
+     */
+    private boolean processClientCommand(String text) {
+        return COMMANDS.dispatch(this, text);
     }
 
     // Send methods
+    private synchronized void send(Payload p) throws IOException {
+        byte[] body = codec.encode(p);
+        out.write(compressor != null ? compressor.frame(body) : WireProtocol.frame(body));
+        out.flush();
+    }
+
     private void sendReadyCheck() throws IOException {
         ReadyPayload rp = new ReadyPayload();
-        out.writeObject(rp);
+        send(rp);
     }
     private void sendDisconnect() throws IOException {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.DISCONNECT);
-        out.writeObject(cp);
+        send(cp);
     }
     private void sendCreateRoom(String roomName) throws IOException {
         Payload p = new Payload();
         p.setPayloadType(PayloadType.CREATE_ROOM);
         p.setMessage(roomName);
-        out.writeObject(p);
+        send(p);
     }
 
     private void sendJoinRoom(String roomName) throws IOException {
         Payload p = new Payload();
         p.setPayloadType(PayloadType.JOIN_ROOM);
         p.setMessage(roomName);
-        out.writeObject(p);
+        send(p);
     }
 
-    private void sendListRooms(String searchString) throws IOException {
+    /**
+     * @param cursor null for the first page
+     */
+    private void sendListRooms(String searchString, RoomSort sort, String cursor) throws IOException {
         // Updated after video to use RoomResultsPayload so we can (later) use a limit
         // value
         RoomResultsPayload p = new RoomResultsPayload();
         p.setMessage(searchString);
         p.setLimit(10);
-        out.writeObject(p);
+        p.setSort(sort);
+        p.setCursor(cursor);
+        send(p);
+    }
+
+    /**
+     * @param target a name, or #id
+     */
+    private void sendWhisper(String target, String message) throws IOException {
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.WHISPER);
+        if (target.startsWith("#")) {
+            cp.setClientId(Long.parseLong(target.substring(1)));
+        } else {
+            cp.setClientId(Constants.DEFAULT_CLIENT_ID);
+            cp.setClientName(target);
+        }
+        cp.setMessage(message);
+        send(cp);
     }
 
     private void sendConnect() throws IOException {
         ConnectionPayload p = new ConnectionPayload(true);
 
         p.setClientName(clientName);
-        out.writeObject(p);
+        send(p);
     }
 
     private void sendMessage(String message) throws IOException {
@@ -251,7 +357,7 @@ public enum Client {
         p.setMessage(message);
         // no need to send an identifier, because the server knows who we are
         // p.setClientName(clientName);
-        out.writeObject(p);
+        send(p);
     }
 
     // end send methods
@@ -302,7 +408,7 @@ public enum Client {
 
                     // while we're connected, listen for strings from server
                     while (!server.isClosed() && !server.isInputShutdown()
-                            && (fromServer = (Payload) in.readObject()) != null) {
+                            && (fromServer = readPayload()) != null) {
 
                         logger.info("Debug Info: " + fromServer);
                         processPayload(fromServer);
@@ -325,6 +431,11 @@ public enum Client {
         fromServerThread.start();// start the thread
     }
 
+    private Payload readPayload() throws IOException {
+        byte[] frame = WireProtocol.readFrame(in, compressor);
+        return codec.decode(frame, 0, frame.length);
+    }
+
     private void addClientReference(long id, String name) {
         if (!clientsInRoom.containsKey(id)) {
             ClientPlayer cp = new ClientPlayer();
@@ -392,6 +503,23 @@ public enum Client {
                         p.getMessage()), Color.BLUE);
                 System.out.println(message);
                 break;
+            case WHISPER:
+                ConnectionPayload wp = (ConnectionPayload) p;
+                // our own id means it's the copy of one we sent
+                message = TextFX.colorize(String.format(wp.getClientId() == myClientId ? "(to %s) %s" : "(from %s) %s",
+                        wp.getClientName(), wp.getMessage()), Color.PURPLE);
+                System.out.println(message);
+                break;
+            case HISTORY:
+                HistoryPayload hp = (HistoryPayload) p;
+                System.out.println(TextFX.colorize("Earlier in this room", Color.CYAN));
+                for (int i = 0; i < hp.size(); i++) {
+                    String name = hp.getClientNames().get(i);
+                    System.out.println(TextFX.colorize(String.format("[%tR] %s: %s", hp.getSentAt().get(i),
+                            name != null ? name : getClientNameFromId(hp.getClientIds().get(i)),
+                            hp.getMessages().get(i)), Color.BLUE));
+                }
+                break;
             case LIST_ROOMS:
                 try {
                     RoomResultsPayload rp = (RoomResultsPayload) p;
@@ -402,11 +530,22 @@ public enum Client {
                     }
                     // print room names found
                     List<String> rooms = rp.getRooms();
+                    List<Integer> occupancy = rp.getOccupancy();
+                    List<String> phases = rp.getPhases();
+                    nextRoomsCursor = rp.getCursor();
                     System.out.println(TextFX.colorize("Room Results", Color.CYAN));
                     for (int i = 0; i < rooms.size(); i++) {
                         String msg = String.format("%s %s", (i + 1), rooms.get(i));
+                        // older servers only send names
+                        if (occupancy != null && i < occupancy.size()) {
+                            msg += String.format(" (%s members%s)", occupancy.get(i),
+                                    phases.get(i) == null ? "" : ", " + phases.get(i));
+                        }
                         System.out.println(TextFX.colorize(msg, Color.CYAN));
                     }
+                    if (nextRoomsCursor != null) {
+                        System.out.println(TextFX.colorize("More rooms available, use /morerooms", Color.CYAN));
+                    }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -421,6 +560,15 @@ public enum Client {
                     e.printStackTrace();
                 }
                 break;
+            case PING:
+                try {
+                    Payload pong = new Payload();
+                    pong.setPayloadType(PayloadType.PONG);
+                    send(pong);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                break;
             case PHASE:
                 try {
                     currentPhase = Enum.valueOf(Phase.class, p.getMessage());
@@ -480,6 +628,9 @@ public enum Client {
         } catch (NullPointerException ne) {
             logger.warning("Server was never opened so this exception is ok");
         }
+        if (compressor != null) {
+            compressor.close();
+        }
     }
 
     public static void main(String[] args) {
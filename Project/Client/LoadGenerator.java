@@ -0,0 +1,252 @@
+package Project.Client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import Project.Common.LatencyHistogram;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.ReadyPayload;
+
+/**
+ * Headless load test: opens many AsyncClient sessions spread over a set of
+ * rooms and drives a scripted mix of MESSAGE/READY/JOIN_ROOM at a fixed rate.
+ * <p>
+ * Every message carries its send time so the members receiving it (same
+ * process, same clock) can record send-to-receive latency. Reports latency
+ * percentiles plus sent/delivered throughput per room.
+ * </p>
+ * Usage: host port sessions rooms actionsPerSecPerSession durationSec
+ * [readyPercent] [hopPercent]
+ */
+public class LoadGenerator {
+    private static final String MARKER = "lg ";
+    private static final int CONNECT_PARALLELISM = 64;
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+    private static final long REPORT_INTERVAL_MS = 5_000;
+
+    private static class Session {
+        private final AsyncClient client;
+        private volatile String room;
+
+        private Session(AsyncClient client) {
+            this.client = client;
+        }
+    }
+
+    private static class RoomStats {
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private final String host;
+    private final int port;
+    private final int sessionCount;
+    private final int roomCount;
+    private final double rate;
+    private final int durationSec;
+    private final int readyPercent;
+    private final int hopPercent;
+    private final List<Session> sessions = new ArrayList<Session>();
+    private final Map<String, RoomStats> roomStats = new ConcurrentHashMap<String, RoomStats>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    public LoadGenerator(String host, int port, int sessionCount, int roomCount, double rate, int durationSec,
+            int readyPercent, int hopPercent) {
+        this.host = host;
+        this.port = port;
+        this.sessionCount = sessionCount;
+        this.roomCount = Math.max(1, roomCount);
+        this.rate = rate;
+        this.durationSec = durationSec;
+        this.readyPercent = readyPercent;
+        this.hopPercent = hopPercent;
+    }
+
+    private static String roomName(int index) {
+        return "load-" + index;
+    }
+
+    private RoomStats statsFor(String room) {
+        return roomStats.computeIfAbsent(room == null ? "?" : room, r -> new RoomStats());
+    }
+
+    private void onPayload(Session session, Payload p) {
+        if (p.getPayloadType() == PayloadType.JOIN_ROOM) {
+            session.room = p.getMessage();
+            return;
+        }
+        if (p.getPayloadType() != PayloadType.MESSAGE || p.getMessage() == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        RoomStats stats = null;
+        // the server may have coalesced several messages into one
+        for (String line : p.getMessage().split("\n")) {
+            if (!line.startsWith(MARKER)) {
+                continue;
+            }
+            try {
+                long sentAt = Long.parseLong(line.substring(MARKER.length()));
+                if (stats == null) {
+                    stats = statsFor(session.room);
+                }
+                latency.recordNanos(now - sentAt);
+                stats.latency.recordNanos(now - sentAt);
+                stats.delivered.increment();
+                delivered.increment();
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+    }
+
+    /**
+     * Connects every session (CONNECT_PARALLELISM at a time) and puts it in its
+     * room, creating the room if it's the first one there
+     */
+    private void connectAll() throws InterruptedException {
+        Semaphore permits = new Semaphore(CONNECT_PARALLELISM);
+        CountDownLatch done = new CountDownLatch(sessionCount);
+        long start = System.nanoTime();
+        for (int i = 0; i < sessionCount; i++) {
+            String room = roomName(i % roomCount);
+            Session session = new Session(new AsyncClient("bot" + i));
+            session.client.setListener(p -> onPayload(session, p));
+            permits.acquire();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    session.client.connect(host, port).get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    session.client.createRoom(room)
+                            .exceptionallyCompose(e -> session.client.joinRoom(room))
+                            .get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    synchronized (sessions) {
+                        sessions.add(session);
+                    }
+                } catch (Exception e) {
+                    errors.increment();
+                    session.client.close();
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        logger.info(String.format("Connected %s/%s sessions in %sms", sessions.size(), sessionCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    private void act(Session session) {
+        if (!session.client.isConnected()) {
+            return;
+        }
+        int roll = ThreadLocalRandom.current().nextInt(100);
+        try {
+            if (roll < readyPercent) {
+                session.client.post(new ReadyPayload());
+            } else if (roll < readyPercent + hopPercent) {
+                session.client.joinRoom(roomName(ThreadLocalRandom.current().nextInt(roomCount)))
+                        .exceptionally(e -> {
+                            errors.increment();
+                            return null;
+                        });
+            } else {
+                Payload p = new Payload();
+                p.setPayloadType(PayloadType.MESSAGE);
+                p.setMessage(MARKER + System.nanoTime());
+                session.client.post(p);
+                statsFor(session.room).sent.increment();
+                sent.increment();
+            }
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    public void run() throws InterruptedException {
+        connectAll();
+        ScheduledExecutorService scheduler = Executors
+                .newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        for (Session session : sessions) {
+            // spread the sessions over the period so they don't all fire together
+            scheduler.scheduleAtFixedRate(() -> act(session),
+                    ThreadLocalRandom.current().nextLong(periodNanos), periodNanos, TimeUnit.NANOSECONDS);
+        }
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSec);
+        long lastSent = 0;
+        long lastDelivered = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL_MS, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+            long s = sent.sum();
+            long d = delivered.sum();
+            logger.info(String.format("sent/s[%s] delivered/s[%s] errors[%s] latency %s",
+                    (s - lastSent) * 1000 / REPORT_INTERVAL_MS, (d - lastDelivered) * 1000 / REPORT_INTERVAL_MS,
+                    errors.sum(), latency));
+            lastSent = s;
+            lastDelivered = d;
+        }
+        scheduler.shutdownNow();
+        Thread.sleep(1000);// <-- let in-flight messages land
+        report(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        sessions.forEach(s -> s.client.close());
+    }
+
+    private void report(long seconds) {
+        seconds = Math.max(1, seconds);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%nSessions[%s] rooms[%s] duration[%ss] sent[%s] delivered[%s] errors[%s]%n",
+                sessions.size(), roomCount, seconds, sent.sum(), delivered.sum(), errors.sum()));
+        sb.append(String.format("Overall: sent/s[%s] delivered/s[%s] %s%n", sent.sum() / seconds,
+                delivered.sum() / seconds, latency));
+        for (Map.Entry<String, RoomStats> e : new TreeMap<String, RoomStats>(roomStats).entrySet()) {
+            RoomStats rs = e.getValue();
+            sb.append(String.format("Room[%s]: sent/s[%s] delivered/s[%s] p50[%sus] p99[%sus] max[%sus]%n",
+                    e.getKey(), rs.sent.sum() / seconds, rs.delivered.sum() / seconds,
+                    rs.latency.getPercentile(50), rs.latency.getPercentile(99), rs.latency.getMax()));
+        }
+        System.out.println(sb);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = 3000;
+        int sessions = 100;
+        int rooms = 10;
+        double rate = 1;
+        int duration = 30;
+        int readyPercent = 0;
+        int hopPercent = 0;
+        try {
+            port = Integer.parseInt(args[1]);
+            sessions = Integer.parseInt(args[2]);
+            rooms = Integer.parseInt(args[3]);
+            rate = Double.parseDouble(args[4]);
+            duration = Integer.parseInt(args[5]);
+            readyPercent = Integer.parseInt(args[6]);
+            hopPercent = Integer.parseInt(args[7]);
+        } catch (Exception e) {
+            // can ignore, anything missing keeps its default (same as Server.main)
+        }
+        new LoadGenerator(host, port, sessions, rooms, rate, duration, readyPercent, hopPercent).run();
+    }
+}
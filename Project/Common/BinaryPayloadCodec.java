@@ -0,0 +1,302 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hand written encoding of the Payload hierarchy.
+ * <p>
+ * Layout: PayloadType ordinal (1 byte), clientId (zigzag varint), message
+ * (string) followed by the fields of the subclass that PayloadType maps to.
+ * The high bit of the type byte means a requestId (varint) follows it; it's
+ * only set on requests/replies so older peers never see it.
+ * Strings are a varint of (UTF-8 length + 1) where 0 means null, followed by
+ * the UTF-8 bytes.
+ * </p>
+ * A chat message is typically ~10 bytes plus the text instead of the few
+ * hundred bytes of class descriptors Java serialization sends.
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+    public static final byte ID = 1;
+    private static final PayloadType[] TYPES = PayloadType.values();
+    private static final RoomSort[] SORTS = RoomSort.values();
+    private static final int REQUEST_ID_FLAG = 0x80;
+    private static final int NO_ROOMS_FLAG = 0x80;// <-- set on the LIST_ROOMS sort byte
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Payload payload) throws IOException {
+        Writer w = new Writer();
+        PayloadType type = payload.getPayloadType();
+        if (type == null) {
+            throw new IOException("Payload has no type");
+        }
+        long requestId = payload.getRequestId();
+        w.writeByte(requestId != 0 ? type.ordinal() | REQUEST_ID_FLAG : type.ordinal());
+        if (requestId != 0) {
+            w.writeVarLong(requestId);
+        }
+        w.writeVarLong(zigzag(payload.getClientId()));
+        w.writeString(payload.getMessage());
+        try {
+            switch (type) {
+                case CONNECT:
+                case DISCONNECT:
+                case CLIENT_ID:
+                case SYNC_CLIENT:
+                case WHISPER:
+                    w.writeString(((ConnectionPayload) payload).getClientName());
+                    break;
+                case READY:
+                    w.writeByte(((ReadyPayload) payload).isReady() ? 1 : 0);
+                    break;
+                case LIST_ROOMS:
+                    RoomResultsPayload rp = (RoomResultsPayload) payload;
+                    w.writeVarLong(rp.getLimit());
+                    List<String> rooms = rp.getRooms();
+                    // null (invalid request) is sent as 0, flagged on the sort byte below
+                    w.writeVarLong(rooms == null ? 0 : rooms.size());
+                    if (rooms != null) {
+                        for (String room : rooms) {
+                            w.writeString(room);
+                        }
+                    }
+                    // paging fields trail the original layout so older decoders just stop early
+                    w.writeString(rp.getCursor());
+                    int flags = rooms == null ? NO_ROOMS_FLAG : 0;
+                    w.writeByte((rp.getSort() == null ? 0 : rp.getSort().ordinal()) | flags);
+                    List<Integer> occupancy = rp.getOccupancy();
+                    List<String> phases = rp.getPhases();
+                    int details = rooms == null || occupancy == null || phases == null ? 0
+                            : Math.min(rooms.size(), Math.min(occupancy.size(), phases.size()));
+                    w.writeVarLong(details);
+                    for (int i = 0; i < details; i++) {
+                        w.writeVarLong(occupancy.get(i));
+                        w.writeString(phases.get(i));
+                    }
+                    break;
+                case HISTORY:
+                    HistoryPayload hp = (HistoryPayload) payload;
+                    w.writeVarLong(hp.size());
+                    for (int i = 0; i < hp.size(); i++) {
+                        w.writeVarLong(zigzag(hp.getClientIds().get(i)));
+                        w.writeString(hp.getClientNames().get(i));
+                        w.writeString(hp.getMessages().get(i));
+                        w.writeVarLong(hp.getSentAt().get(i));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (ClassCastException e) {
+            throw new IOException("Unexpected Payload class for type " + type, e);
+        }
+        return w.toByteArray();
+    }
+
+    @Override
+    public Payload decode(byte[] data, int offset, int length) throws IOException {
+        Reader r = new Reader(data, offset, length);
+        int ordinal = r.readByte();
+        long requestId = 0;
+        if ((ordinal & REQUEST_ID_FLAG) != 0) {
+            ordinal &= ~REQUEST_ID_FLAG;
+            requestId = r.readVarLong();
+        }
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown payload type " + ordinal);
+        }
+        PayloadType type = TYPES[ordinal];
+        long clientId = unzigzag(r.readVarLong());
+        String message = r.readString();
+        Payload payload;
+        switch (type) {
+            case CONNECT:
+            case DISCONNECT:
+            case CLIENT_ID:
+            case SYNC_CLIENT:
+            case WHISPER:
+                ConnectionPayload cp = new ConnectionPayload();
+                cp.setClientName(r.readString());
+                payload = cp;
+                break;
+            case READY:
+                ReadyPayload rp = new ReadyPayload();
+                rp.setReady(r.readByte() != 0);
+                payload = rp;
+                break;
+            case LIST_ROOMS:
+                RoomResultsPayload rrp = new RoomResultsPayload();
+                rrp.setLimit((int) r.readVarLong());
+                int count = r.readCount();
+                List<String> rooms = new ArrayList<String>(Math.min(count, 100));
+                for (int i = 0; i < count; i++) {
+                    rooms.add(r.readString());
+                }
+                rrp.setRooms(rooms);
+                // absent when it comes from an older peer
+                if (r.hasRemaining()) {
+                    rrp.setCursor(r.readString());
+                    int sort = r.readByte();
+                    if ((sort & NO_ROOMS_FLAG) != 0) {
+                        sort &= ~NO_ROOMS_FLAG;
+                        rrp.setRooms(null);
+                    }
+                    rrp.setSort(sort < SORTS.length ? SORTS[sort] : RoomSort.NAME);
+                    int details = r.readCount();
+                    List<Integer> occupancy = new ArrayList<Integer>(Math.min(details, 100));
+                    List<String> phases = new ArrayList<String>(Math.min(details, 100));
+                    for (int i = 0; i < details; i++) {
+                        occupancy.add((int) r.readVarLong());
+                        phases.add(r.readString());
+                    }
+                    rrp.setOccupancy(occupancy);
+                    rrp.setPhases(phases);
+                }
+                payload = rrp;
+                break;
+            case HISTORY:
+                HistoryPayload hp = new HistoryPayload();
+                int entries = r.readCount();
+                for (int i = 0; i < entries; i++) {
+                    hp.add(unzigzag(r.readVarLong()), r.readString(), r.readString(), r.readVarLong());
+                }
+                payload = hp;
+                break;
+            default:
+                payload = new Payload();
+                break;
+        }
+        payload.setPayloadType(type);
+        payload.setClientId(clientId);
+        payload.setMessage(message);
+        payload.setRequestId(requestId);
+        return payload;
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Minimal growable byte buffer; a new one is used per encode so the codec can
+     * be shared by every thread sending to a connection
+     */
+    private static class Writer {
+        private byte[] buf = new byte[64];
+        private int size = 0;
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, buf, size, utf8.length);
+            size += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int pos;
+        private final int end;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        private void require(int n) throws IOException {
+            if (n < 0 || pos + n > end) {
+                throw new IOException("Truncated payload");
+            }
+        }
+
+        boolean hasRemaining() {
+            return pos < end;
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return data[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * A number of entries that follow; each takes at least a byte, so more
+         * than what's left (or a negative int) can only be a malformed payload
+         */
+        int readCount() throws IOException {
+            long count = readVarLong();
+            if (count < 0 || count > end - pos) {
+                throw new IOException("Malformed payload");
+            }
+            return (int) count;
+        }
+
+        String readString() throws IOException {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            if (encoded - 1 > WireProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("String too long");
+            }
+            int length = (int) (encoded - 1);
+            require(length);
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Slash commands ("/name args") and their handlers, shared by the client and
+ * the server.
+ * <p>
+ * Parsing is a single pass over the text and allocates nothing unless a
+ * command matches: text that doesn't start with the trigger is rejected on its
+ * first character, and a name is found by indexing a table by its first letter
+ * and comparing it in place (case-insensitive) against the few names that
+ * share that letter, instead of splitting or substring-ing the text. Only a
+ * matched command's arguments are copied out.
+ * </p>
+ * Registering rebuilds the table (copy-on-write), so dispatch is safe from
+ * any thread without a lock; register everything up front.
+ *
+ * @param <C> whatever the handlers act on (the client, or a room and sender)
+ */
+public class CommandRegistry<C> {
+    public static final char TRIGGER = '/';
+    private static final int BUCKETS = 64;// <-- first letter, folded to lower case
+
+    @FunctionalInterface
+    public interface Handler<C> {
+        /**
+         * @param args everything after the name with surrounding spaces removed,
+         *             "" if there's nothing
+         */
+        void handle(C context, String args);
+    }
+
+    private static class Command<C> {
+        private final String name;
+        private final Handler<C> handler;
+
+        private Command(String name, Handler<C> handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+    }
+
+    private volatile Command<C>[][] table = newTable();
+    private final List<String> names = new ArrayList<String>();
+
+    // a generic array can't be created directly; it only ever holds Command<C>
+    @SuppressWarnings("unchecked")
+    private static <C> Command<C>[][] newTable() {
+        return (Command<C>[][]) new Command<?>[BUCKETS][];
+    }
+
+    /**
+     * Adds (or replaces) a command; the first name is the one listed by names(),
+     * the rest are aliases
+     *
+     * @param names without the trigger, e.g. "kick"; matched case-insensitively
+     * @return this, for chaining
+     */
+    public synchronized CommandRegistry<C> register(Handler<C> handler, String... names) {
+        Command<C>[][] next = newTable();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (table[i] != null) {
+                next[i] = table[i].clone();
+            }
+        }
+        for (String name : names) {
+            if (name.isEmpty() || name.indexOf(' ') > -1 || name.charAt(0) == TRIGGER) {
+                throw new IllegalArgumentException("Invalid command name: " + name);
+            }
+            int bucket = bucket(name.charAt(0));
+            Command<C>[] commands = next[bucket];
+            int existing = -1;
+            for (int i = 0; commands != null && i < commands.length; i++) {
+                if (commands[i].name.equalsIgnoreCase(name)) {
+                    existing = i;
+                }
+            }
+            Command<C> command = new Command<C>(name, handler);
+            if (existing > -1) {
+                commands[existing] = command;
+            } else {
+                commands = commands == null ? newBucket(1) : Arrays.copyOf(commands, commands.length + 1);
+                commands[commands.length - 1] = command;
+                next[bucket] = commands;
+            }
+        }
+        if (!this.names.contains(names[0])) {
+            this.names.add(names[0]);
+        }
+        table = next;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")// <-- same as newTable()
+    private static <C> Command<C>[] newBucket(int size) {
+        return (Command<C>[]) new Command<?>[size];
+    }
+
+    /**
+     * Primary names in the order they were registered
+     */
+    public synchronized List<String> names() {
+        return List.copyOf(names);
+    }
+
+    /**
+     * True if the text starts with the trigger; says nothing about whether it's
+     * a known command
+     */
+    public static boolean isCommand(String text) {
+        return text != null && text.length() > 1 && text.charAt(0) == TRIGGER;
+    }
+
+    /**
+     * Runs the matching command's handler
+     *
+     * @return false if the text isn't a known command (it's left to the caller,
+     *         e.g. sent as chat)
+     */
+    public boolean dispatch(C context, String text) {
+        Command<C> command = find(text);
+        if (command == null) {
+            return false;
+        }
+        command.handler.handle(context, argsOf(text, command.name.length() + 1));
+        return true;
+    }
+
+    /**
+     * True if dispatch() would run a handler for the text
+     */
+    public boolean isKnown(String text) {
+        return find(text) != null;
+    }
+
+    private Command<C> find(String text) {
+        if (!isCommand(text)) {
+            return null;
+        }
+        int end = 1;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        int length = end - 1;
+        Command<C>[] commands = table[bucket(text.charAt(1))];
+        if (commands == null) {
+            return null;
+        }
+        for (Command<C> command : commands) {
+            if (command.name.length() == length && text.regionMatches(true, 1, command.name, 0, length)) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips the leading whitespace and drops the trailing whitespace after the
+     * name without going through split() or trim() on the whole text
+     */
+    private static String argsOf(String text, int from) {
+        int start = from;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return start == end ? "" : text.substring(start, end);
+    }
+
+    private static int bucket(char c) {
+        return Character.toLowerCase(c) & (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,74 @@
+package Project.Common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how well frame compression is paying off so the threshold can be
+ * tuned.
+ * <br>
+ * Each FrameCompressor has its own instance which also adds into TOTAL.
+ */
+public class CompressionStats {
+    public static final CompressionStats TOTAL = new CompressionStats(null);
+    private final CompressionStats parent;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    public CompressionStats() {
+        this(TOTAL);
+    }
+
+    private CompressionStats(CompressionStats parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * A frame that went out compressed
+     */
+    protected void onCompressed(int raw, int out, long nanos) {
+        compressed.increment();
+        rawBytes.add(raw);
+        compressedBytes.add(out);
+        deflateNanos.add(nanos);
+        if (parent != null) {
+            parent.onCompressed(raw, out, nanos);
+        }
+    }
+
+    /**
+     * A frame that went out as-is, either under the threshold or not worth it;
+     * nanos is any time spent on a compression attempt
+     */
+    protected void onSkipped(long nanos) {
+        skipped.increment();
+        deflateNanos.add(nanos);
+        if (parent != null) {
+            parent.onSkipped(nanos);
+        }
+    }
+
+    protected void onInflated(long nanos) {
+        inflateNanos.add(nanos);
+        if (parent != null) {
+            parent.onInflated(nanos);
+        }
+    }
+
+    /**
+     * compressed size / original size of the frames that were compressed
+     */
+    public double getRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 1.0 : (double) compressedBytes.sum() / raw;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("compressed[%s] skipped[%s] ratio[%.2f] deflate[%.1fms] inflate[%.1fms]",
+                compressed.sum(), skipped.sum(), getRatio(), deflateNanos.sum() / 1e6, inflateNanos.sum() / 1e6);
+    }
+}
@@ -0,0 +1,148 @@
+package Project.Common;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-connection Deflater/Inflater pair for frames once compression has been
+ * negotiated in the handshake.
+ * <p>
+ * A compressed frame has FLAG_COMPRESSED set in its length header and a body
+ * of the original length (4 bytes) followed by the deflated bytes. Every
+ * frame is compressed on its own (the Deflater is reset, not recreated), so
+ * frames can be cached and shared between connections. Frames under the
+ * threshold, or that wouldn't get smaller, are sent as normal frames.
+ * </p>
+ * Each side only compresses from its writer and only inflates from its
+ * reader. close() frees the native zlib memory right away instead of whenever
+ * GC gets to it and may be called from any thread, even while the connection
+ * is still writing or reading.
+ */
+public class FrameCompressor implements AutoCloseable {
+    /**
+     * High bit of the frame length header
+     */
+    public static final int FLAG_COMPRESSED = 0x80000000;
+    /**
+     * High bit of the codec byte in the handshake
+     */
+    public static final int HANDSHAKE_FLAG = 0x80;
+    public static final int DEFAULT_THRESHOLD = 256;
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private final int threshold;
+    private final CompressionStats stats = new CompressionStats();
+    private byte[] scratch = new byte[1024];
+    private volatile boolean isClosed = false;
+
+    public FrameCompressor(int threshold, int level) {
+        this.threshold = threshold;
+        this.deflater = new Deflater(level);
+    }
+
+    public CompressionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Builds a complete frame (header included) for the body, compressing it if
+     * it's worth it
+     */
+    public byte[] frame(byte[] body) {
+        if (body.length < threshold) {
+            stats.onSkipped(0);
+            return WireProtocol.frame(body);
+        }
+        synchronized (deflater) {// <-- uncontended except against close()
+            if (isClosed) {
+                // the connection is going away, nobody reads this
+                return WireProtocol.frame(body);
+            }
+            return deflateFrame(body);
+        }
+    }
+
+    private byte[] deflateFrame(byte[] body) {
+        long start = System.nanoTime();
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            size += deflater.deflate(scratch, size, scratch.length - size);
+            if (size >= body.length) {
+                // not getting any smaller, don't bother
+                stats.onSkipped(System.nanoTime() - start);
+                return WireProtocol.frame(body);
+            }
+        }
+        int bodyLength = 4 + size;
+        byte[] frame = new byte[WireProtocol.FRAME_HEADER_LENGTH + bodyLength];
+        WireProtocol.writeInt(frame, 0, bodyLength | FLAG_COMPRESSED);
+        WireProtocol.writeInt(frame, 4, body.length);
+        System.arraycopy(scratch, 0, frame, 8, size);
+        stats.onCompressed(body.length, frame.length, System.nanoTime() - start);
+        return frame;
+    }
+
+    /**
+     * Restores the original body of a frame that had FLAG_COMPRESSED set
+     */
+    public byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        if (length < 4) {
+            throw new IOException("Truncated compressed frame");
+        }
+        synchronized (inflater) {
+            if (isClosed) {
+                throw new IOException("Connection closed");
+            }
+            return inflateFrame(data, offset, length);
+        }
+    }
+
+    private byte[] inflateFrame(byte[] data, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int originalLength = WireProtocol.checkFrameLength(WireProtocol.readInt(data, offset));
+        byte[] body = new byte[originalLength];
+        inflater.reset();
+        inflater.setInput(data, offset + 4, length - 4);
+        try {
+            int size = 0;
+            while (size < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(body, size, originalLength - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != originalLength) {
+                throw new IOException("Compressed frame was shorter than announced");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame", e);
+        }
+        stats.onInflated(System.nanoTime() - start);
+        return body;
+    }
+
+    /**
+     * Releases the Deflater and Inflater; safe to call more than once
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        synchronized (deflater) {
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package Project.Common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A room's recent messages, oldest first, sent to a client once as it joins.
+ * <p>
+ * The lists are parallel: entry i was sent by clientIds[i] (clientNames[i] at
+ * the time, null for the room itself) at sentAt[i] (epoch millis). Names are
+ * included since the sender may have left before the joiner arrived.
+ * </p>
+ */
+public final class HistoryPayload extends Payload {
+    private static final long serialVersionUID = 1L;// change this if the class changes
+    private final ArrayList<Long> clientIds = new ArrayList<Long>();
+    private final ArrayList<String> clientNames = new ArrayList<String>();
+    private final ArrayList<String> messages = new ArrayList<String>();
+    private final ArrayList<Long> sentAt = new ArrayList<Long>();
+
+    public HistoryPayload() {
+        setPayloadType(PayloadType.HISTORY);
+    }
+
+    public void add(long clientId, String clientName, String message, long sentAt) {
+        clientIds.add(clientId);
+        clientNames.add(clientName);
+        messages.add(message);
+        this.sentAt.add(sentAt);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public List<Long> getClientIds() {
+        return clientIds;
+    }
+
+    public List<String> getClientNames() {
+        return clientNames;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public List<Long> getSentAt() {
+        return sentAt;
+    }
+}
@@ -0,0 +1,99 @@
+package Project.Common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds.
+ * <p>
+ * Each power of two range is split into SUB_BUCKETS linear buckets so any
+ * recorded value is reported within ~6% of itself, from 1us up to ~9 hours,
+ * in a fixed 1K slot array no matter how many samples are recorded.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAGNITUDES = 32;
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * MAGNITUDES);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private volatile long max = 0;
+
+    public void recordNanos(long nanos) {
+        record(Math.max(0, nanos / 1000));
+    }
+
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(micros));
+        total.increment();
+        sum.add(micros);
+        if (micros > max) {
+            max = micros;// <-- racy but only ever low by a concurrent sample
+        }
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS + 1;
+        if (magnitude >= MAGNITUDES) {
+            return SUB_BUCKETS * MAGNITUDES - 1;
+        }
+        int sub = (int) (v >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+        return magnitude * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Upper bound of the values that land in a slot
+     */
+    private static long valueOf(int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return sub;
+        }
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 1)) - 1;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return the latency in microseconds at or below which that share of
+     *         samples fall
+     */
+    public long getPercentile(double percentile) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n[%s] mean[%.0fus] p50[%sus] p90[%sus] p99[%sus] p99.9[%sus] max[%sus]", getCount(),
+                getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), getMax());
+    }
+}
@@ -32,6 +32,21 @@ public class Payload implements Serializable {
 
 
 
+    /**
+     * Correlates a request with its reply; 0 means the sender isn't waiting on a
+     * reply. The server copies it onto the first payload it sends back while
+     * handling the request.
+     */
+    private long requestId = 0;
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     /**
      * Generic text based message
      */
@@ -49,6 +64,6 @@ public class Payload implements Serializable {
     @Override
     public String toString() {
         return String.format("Type[%s], Message[%s], ClientId[%s]", getPayloadType().toString(),
-                getMessage(), getClientId());
+                getMessage(), getClientId()) + (requestId != 0 ? String.format(", RequestId[%s]", requestId) : "");
     }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package Project.Common;
+
+import java.io.IOException;
+
+/**
+ * Converts a Payload to and from the body of a single length-prefixed frame.
+ * <br>
+ * The frame length itself is handled by WireProtocol; a codec only ever sees
+ * the bytes of one Payload.
+ */
+public interface PayloadCodec {
+    /**
+     * Id sent during the handshake to select this codec
+     */
+    byte getId();
+
+    byte[] encode(Payload payload) throws IOException;
+
+    Payload decode(byte[] data, int offset, int length) throws IOException;
+}
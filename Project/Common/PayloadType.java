@@ -1,5 +1,27 @@
 package Project.Common;
 
+/**
+ * Note: BinaryPayloadCodec sends the ordinal, only ever add new types to the end
+ */
 public enum PayloadType {
-    CONNECT, DISCONNECT, MESSAGE, CREATE_ROOM, JOIN_ROOM, LIST_ROOMS, CLIENT_ID, SYNC_CLIENT, READY, PHASE
+    CONNECT, DISCONNECT, MESSAGE, CREATE_ROOM, JOIN_ROOM, LIST_ROOMS, CLIENT_ID, SYNC_CLIENT, READY, PHASE,
+    /**
+     * Heartbeat, answered with PONG; only sent to clients whose handshake version
+     * is at least WireProtocol.HEARTBEAT_VERSION
+     */
+    PING, PONG,
+    /**
+     * Private message (a ConnectionPayload). To the server: clientId and/or
+     * clientName pick the recipient. From the server: clientName is the other
+     * party, and clientId is the sender's id, so it equals your own id on the
+     * copy echoed back to the sender. Only sent to clients whose handshake
+     * version is at least WireProtocol.WHISPER_VERSION.
+     */
+    WHISPER,
+    /**
+     * A room's recent messages (a HistoryPayload), sent right after JOIN_ROOM.
+     * Only sent to clients whose handshake version is at least
+     * WireProtocol.HISTORY_VERSION; older ones get a MESSAGE per entry.
+     */
+    HISTORY
 }
\ No newline at end of file
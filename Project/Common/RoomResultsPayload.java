@@ -3,8 +3,30 @@ package Project.Common;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * LIST_ROOMS request and reply.
+ * <p>
+ * Request: message is the search string, plus limit, sort and the cursor of
+ * the previous page (null for the first page). Reply: rooms holds the names,
+ * with occupancy and phases in the same order (a phase is null for rooms that
+ * aren't GameRooms), and cursor is what to send for the next page (null on the
+ * last page).
+ * </p>
+ */
 public class RoomResultsPayload extends Payload {
+    // pinned to the value computed before cursor/sort/occupancy were added so
+    // legacy object stream clients can still read it (they ignore the new fields)
+    private static final long serialVersionUID = -361684205890977561L;
+    // the lists are always ArrayLists (or null), which serialize fine; rooms stays
+    // declared as a List since its type is part of what legacy clients read
+    @SuppressWarnings("serial")
     private List<String> rooms = new ArrayList<String>();
+    @SuppressWarnings("serial")
+    private List<Integer> occupancy = new ArrayList<Integer>();
+    @SuppressWarnings("serial")
+    private List<String> phases = new ArrayList<String>();
+    private String cursor = null;
+    private RoomSort sort = RoomSort.NAME;
     /**
      * Used to limit the returned result set. Added after video recording.
      */
@@ -29,4 +51,43 @@ public class RoomResultsPayload extends Payload {
     public void setRooms(List<String> rooms) {
         this.rooms = rooms;
     }
+
+    /**
+     * Member count of each room in getRooms(), same order
+     */
+    public List<Integer> getOccupancy() {
+        return occupancy;
+    }
+
+    public void setOccupancy(List<Integer> occupancy) {
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Phase name of each room in getRooms(), same order; null entries for rooms
+     * without one
+     */
+    public List<String> getPhases() {
+        return phases;
+    }
+
+    public void setPhases(List<String> phases) {
+        this.phases = phases;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public RoomSort getSort() {
+        return sort;
+    }
+
+    public void setSort(RoomSort sort) {
+        this.sort = sort;
+    }
 }
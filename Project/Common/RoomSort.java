@@ -0,0 +1,23 @@
+package Project.Common;
+
+/**
+ * Orders for LIST_ROOMS results; every order ends with the room name so pages
+ * are stable.
+ * Note: BinaryPayloadCodec sends the ordinal, only ever add new orders to the
+ * end
+ */
+public enum RoomSort {
+    /**
+     * Case-insensitive name, A-Z
+     */
+    NAME,
+    /**
+     * Most members first
+     */
+    OCCUPANCY,
+    /**
+     * GameRooms waiting for players (READY) first, then in progress, then rooms
+     * without a phase (the lobby)
+     */
+    PHASE
+}
@@ -0,0 +1,40 @@
+package Project.Common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Frames each Payload as its own self-contained Java serialization stream.
+ * <br>
+ * Slower and larger than a hand written format, but supports every Payload
+ * subclass without any extra code.
+ */
+public class SerializedPayloadCodec implements PayloadCodec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Payload decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return (Payload) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Frame did not contain a Payload", e);
+        }
+    }
+}
@@ -2,20 +2,29 @@ package Project.Common;
 
 /* Originally based off of https://gist.github.com/MattToegel/c55747f26c5092d6362678d5b1729ec6 */
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
- * Simple countdown timer demo of java.util.Timer facility.
+ * Simple countdown timer.
  * Formerly called Countdown
+ * <br>
+ * Every TimedEvent shares one scheduler whose workers are virtual threads, so
+ * a room's timer no longer costs a dedicated platform thread like
+ * java.util.Timer did.
  */
 
 public class TimedEvent {
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            Thread.ofVirtual().name("timed-event-", 1).factory());
     private int secondsRemaining;
     private Runnable expireCallback = null;
     private Consumer<Integer> tickCallback = null;
-    final private Timer timer;
+    private volatile ScheduledFuture<?> timer;
 
     /**
      * Create a TimedEvent to trigger the passed in callback after a set duration
@@ -36,23 +45,22 @@ public class TimedEvent {
      * @param durationInSeconds
      */
     public TimedEvent(int durationInSeconds) {
-        timer = new Timer();
         secondsRemaining = durationInSeconds;
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                secondsRemaining--;
-                if (tickCallback != null) {
-                    tickCallback.accept(secondsRemaining);
-                }
-                if (secondsRemaining <= 0) {
-                    timer.cancel();
-                    secondsRemaining = 0;
-                    if (expireCallback != null) {
-                        expireCallback.run();
-                    }
-                }
+        timer = scheduler.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void tick() {
+        secondsRemaining--;
+        if (tickCallback != null) {
+            tickCallback.accept(secondsRemaining);
+        }
+        if (secondsRemaining <= 0) {
+            timer.cancel(false);
+            secondsRemaining = 0;
+            if (expireCallback != null) {
+                expireCallback.run();
             }
-        }, 1000, 1000);
+        }
     }
 
     /**
@@ -80,7 +88,7 @@ public class TimedEvent {
     public void cancel() {
         expireCallback = null;
         tickCallback = null;
-        timer.cancel();
+        timer.cancel(false);
     }
 
     /**
@@ -99,12 +107,15 @@ public class TimedEvent {
      * 
      * @param args
      */
-    public static void main(String args[]) {
+    public static void main(String args[]) throws InterruptedException {
         TimedEvent cd = new TimedEvent(30, () -> {
             System.out.println("Time expired");
         });
         cd.setTickCallback((tick) -> {
             System.out.println("Tick: " + tick);
         });
+        // scheduler threads are virtual (daemon) so keep the demo alive until it
+        // expires
+        Thread.sleep(31000);
     }
 }
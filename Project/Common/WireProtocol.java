@@ -0,0 +1,203 @@
+package Project.Common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+
+/**
+ * Describes the framed wire format shared by the Client and both server
+ * transports.
+ * <p>
+ * A framed connection starts with a 4 byte handshake from the client:
+ * 'I', 'T', version, codec id. The server answers with the same 4 bytes
+ * carrying the version and codec it accepted. After that every Payload is sent as a 4 byte
+ * big-endian length followed by that many bytes produced by the codec.
+ * <br>
+ * The high bit of the codec byte asks for (and in the reply, grants) frame
+ * compression, in which case the high bit of a frame's length marks a
+ * compressed frame (see FrameCompressor).
+ * </p>
+ * <p>
+ * Connections that instead start with the Java serialization stream header are
+ * legacy clients that write raw objects; only the blocking transport still
+ * accepts those.
+ * </p>
+ */
+public abstract class WireProtocol {
+    public static final byte MAGIC_0 = 'I';
+    public static final byte MAGIC_1 = 'T';
+    public static final byte VERSION = 4;
+    /**
+     * Oldest framed client version still accepted
+     */
+    public static final byte MIN_VERSION = 1;
+    /**
+     * First version that understands PING/PONG; older clients would fail to
+     * decode them so they're never pinged
+     */
+    public static final byte HEARTBEAT_VERSION = 2;
+    /**
+     * First version that can decode WHISPER; older clients get whispers as a
+     * plain MESSAGE
+     */
+    public static final byte WHISPER_VERSION = 3;
+    /**
+     * First version that can decode HISTORY; older clients get the catch-up as
+     * plain MESSAGEs
+     */
+    public static final byte HISTORY_VERSION = 4;
+    public static final int HANDSHAKE_LENGTH = 4;
+    public static final int FRAME_HEADER_LENGTH = 4;
+    /**
+     * Upper bound on a single frame so a bad length can't make us allocate
+     * gigabytes
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    public static byte[] handshake(byte codecId) {
+        return handshake(codecId, false);
+    }
+
+    public static byte[] handshake(byte codecId, boolean isCompressed) {
+        return handshake(VERSION, codecId, isCompressed);
+    }
+
+    public static byte[] handshake(byte version, byte codecId, boolean isCompressed) {
+        return new byte[] { MAGIC_0, MAGIC_1, version,
+                (byte) (isCompressed ? codecId | FrameCompressor.HANDSHAKE_FLAG : codecId) };
+    }
+
+    public static byte version(byte[] handshake) {
+        return handshake[2];
+    }
+
+    /**
+     * The version the server answers a handshake with (the lower of the two)
+     */
+    public static byte negotiateVersion(byte[] handshake) {
+        return (byte) Math.min(version(handshake), VERSION);
+    }
+
+    public static boolean supportsHeartbeat(byte[] handshake) {
+        return version(handshake) >= HEARTBEAT_VERSION;
+    }
+
+    /**
+     * Whether the handshake asks for (or grants) frame compression
+     */
+    public static boolean isCompressed(byte[] handshake) {
+        return (handshake[3] & FrameCompressor.HANDSHAKE_FLAG) != 0;
+    }
+
+    /**
+     * The codec id of a handshake without the compression flag
+     */
+    public static byte codecId(byte[] handshake) {
+        return (byte) (handshake[3] & ~FrameCompressor.HANDSHAKE_FLAG);
+    }
+
+    /**
+     * Checks the first 2 bytes of a connection for the Java serialization stream
+     * header (0xACED)
+     */
+    public static boolean isLegacyStream(int b0, int b1) {
+        return (((b0 & 0xFF) << 8) | (b1 & 0xFF)) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF);
+    }
+
+    public static boolean isHandshake(byte[] data) {
+        return data.length >= HANDSHAKE_LENGTH && data[0] == MAGIC_0 && data[1] == MAGIC_1
+                && data[2] >= MIN_VERSION;// <-- newer clients are answered with our version
+    }
+
+    /**
+     * Returns the codec for the given handshake id or null if it isn't supported
+     */
+    public static PayloadCodec codecFor(byte codecId) {
+        switch (codecId) {
+            case SerializedPayloadCodec.ID:
+                return new SerializedPayloadCodec();
+            case BinaryPayloadCodec.ID:
+                return new BinaryPayloadCodec();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Picks the codec the server will answer a handshake with; unknown ids fall
+     * back to SerializedPayloadCodec so older/newer clients can still talk to us
+     */
+    public static PayloadCodec negotiate(byte[] handshake) {
+        PayloadCodec codec = codecFor(codecId(handshake));
+        return codec != null ? codec : new SerializedPayloadCodec();
+    }
+
+    /**
+     * Validates a frame length read off the wire
+     *
+     * @throws IOException if the length is negative or over MAX_FRAME_LENGTH
+     */
+    public static int checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Builds a complete uncompressed frame (header included)
+     */
+    public static byte[] frame(byte[] body) {
+        byte[] frame = new byte[FRAME_HEADER_LENGTH + body.length];
+        writeInt(frame, 0, body.length);
+        System.arraycopy(body, 0, frame, FRAME_HEADER_LENGTH, body.length);
+        return frame;
+    }
+
+    /**
+     * Writes a single length-prefixed frame; does not flush
+     */
+    public static void writeFrame(DataOutputStream out, byte[] body) throws IOException {
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * Blocks until a full frame has been read
+     */
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, null);
+    }
+
+    /**
+     * Blocks until a full frame has been read, inflating it if it was compressed
+     *
+     * @param compressor null if compression wasn't negotiated
+     */
+    public static byte[] readFrame(DataInputStream in, FrameCompressor compressor) throws IOException {
+        int header = in.readInt();
+        int length = checkFrameLength(header & ~FrameCompressor.FLAG_COMPRESSED);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        if ((header & FrameCompressor.FLAG_COMPRESSED) == 0) {
+            return body;
+        }
+        if (compressor == null) {
+            throw new IOException("Received a compressed frame but compression wasn't negotiated");
+        }
+        return compressor.inflate(body, 0, length);
+    }
+
+    public static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,93 @@
+package Project.Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import Project.Common.LatencyHistogram;
+
+/**
+ * Gets accepted connections into the lobby.
+ * <p>
+ * There's no queue: the transport reports the accept, and the session's own
+ * CONNECT payload calls admit() on whichever thread read it, so one slow client
+ * never holds up the ones behind it. A check on the Server's TimingWheel drops
+ * connections that haven't sent CONNECT within the admission timeout.
+ * </p>
+ * Tracks accept rate and time-to-lobby (accept to lobby join) and logs them
+ * every reportMs while connections are coming in.
+ */
+public class AdmissionController {
+    private final TimingWheel wheel;
+    private final long timeoutMs;
+    private final long reportMs;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyHistogram timeToLobby = new LatencyHistogram();
+    private long lastReportedAccepts = 0;// <-- wheel thread only
+    private ServerLog logger = ServerLog.of(AdmissionController.class);
+
+    public AdmissionController(TimingWheel wheel, long timeoutMs, long reportMs) {
+        this.wheel = wheel;
+        this.timeoutMs = timeoutMs;
+        this.reportMs = reportMs;
+    }
+
+    /**
+     * Starts the periodic report
+     */
+    public void start() {
+        wheel.schedule(this::report, reportMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by the transport for every new connection
+     */
+    public void onAccepted(ServerThread session) {
+        accepted.increment();
+        wheel.schedule(() -> checkAdmitted(session), timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called once the session has sent CONNECT; later CONNECTs are ignored
+     */
+    public void admit(ServerThread session) {
+        if (!session.markAdmitted()) {
+            return;
+        }
+        Server.INSTANCE.handleIncomingClient(session);
+        admitted.increment();
+        timeToLobby.recordNanos(System.nanoTime() - session.getAcceptedAt());
+    }
+
+    /**
+     * Runs on the wheel thread
+     */
+    private void checkAdmitted(ServerThread session) {
+        if (session.isAdmitted() || session.isClosed()) {
+            return;
+        }
+        timedOut.increment();
+        logger.info("Dropping connection that didn't send CONNECT within %sms", timeoutMs);
+        // not in a room yet so this only closes the socket
+        session.disconnect();
+    }
+
+    /**
+     * Runs on the wheel thread and reschedules itself
+     */
+    private void report() {
+        long total = accepted.sum();
+        if (total != lastReportedAccepts) {
+            logger.info("Admission: accepts/s[%.1f] %s", (total - lastReportedAccepts) * 1000.0 / reportMs, this);
+            lastReportedAccepts = total;
+        }
+        wheel.schedule(this::report, reportMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("accepted[%s] admitted[%s] timedOut[%s] timeToLobby %s", accepted.sum(), admitted.sum(),
+                timedOut.sum(), timeToLobby);
+    }
+}
@@ -0,0 +1,368 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only audit log of room traffic, written to memory-mapped segment
+ * files.
+ * <p>
+ * append() only enqueues, so rooms never wait on the disk. A single writer
+ * thread drains whatever has queued up, copies it into the current segment and
+ * forces the batch to disk once (group commit), so the cost of a sync is
+ * shared by every record that arrived while the previous one was running. If
+ * the queue is full the record is dropped and counted rather than blocking
+ * the room.
+ * </p>
+ * <p>
+ * Segments are preallocated files of segmentBytes named
+ * {@code <index>-<startMillis>.log}; when one can't fit the next record a new
+ * one is started. Old segments are deleted once the total exceeds retainBytes
+ * or the next segment started more than retainMs ago (so everything in them
+ * is older than that). A new segment is started on every boot.
+ * </p>
+ * Record layout: length (int) and CRC32C (int) of the body, then kind (byte),
+ * timestamp (long), clientId (long) and room, clientName and message as an
+ * int UTF-8 length (-1 for null) plus the bytes. A zero length marks the end
+ * of a segment's records. See ChatLogReader.
+ */
+public class ChatLog implements AutoCloseable {
+    public enum Kind {
+        MESSAGE, JOIN, LEAVE
+    }
+
+    /**
+     * One record, as queued by append() and as read back by ChatLogReader
+     */
+    public static class Entry {
+        private final Kind kind;
+        private final long timestamp;
+        private final String room;
+        private final long clientId;
+        private final String clientName;
+        private final String message;
+
+        public Entry(Kind kind, long timestamp, String room, long clientId, String clientName, String message) {
+            this.kind = kind;
+            this.timestamp = timestamp;
+            this.room = room;
+            this.clientId = clientId;
+            this.clientName = clientName;
+            this.message = message;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public long getClientId() {
+            return clientId;
+        }
+
+        public String getClientName() {
+            return clientName;
+        }
+
+        /**
+         * null for JOIN/LEAVE
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tF %<tT %s %s[%s] %s%s", timestamp, room, clientName, clientId, kind,
+                    message == null ? "" : ": " + message);
+        }
+    }
+
+    static final String SUFFIX = ".log";
+    static final int HEADER_BYTES = 8;// <-- length + crc
+    private static final int MAX_BATCH = 1024;
+    private static final long RETENTION_CHECK_MS = 60_000;
+    private static final long DROP_REPORT_MS = 10_000;
+    private static final Kind[] KINDS = Kind.values();
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{16}-\\d+\\.log");// <-- zero padded so they sort
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retainBytes;
+    private final long retainMs;
+    private final boolean isSync;
+    private final ArrayBlockingQueue<Entry> pending;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean isRunning = true;
+    private ServerLog logger = ServerLog.of(ChatLog.class);
+    // writer thread only from here down
+    private final ArrayDeque<Path> segments = new ArrayDeque<Path>();// <-- oldest first, last is current
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private long reportedDrops = 0;
+    private long lastDropReport = 0;
+    private long lastRetentionCheck = 0;
+
+    /**
+     * Opens the log directory (creating it if needed), starts a new segment and
+     * the writer thread
+     */
+    public ChatLog(Path dir, int segmentBytes, long retainBytes, long retainMs, boolean isSync, int queueCapacity)
+            throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retainBytes = retainBytes;
+        this.retainMs = retainMs;
+        this.isSync = isSync;
+        pending = new ArrayBlockingQueue<Entry>(queueCapacity);
+        Files.createDirectories(dir);
+        segments.addAll(listSegments(dir));
+        segmentIndex = segments.isEmpty() ? 0 : indexOf(segments.peekLast()) + 1;
+        roll();
+        writer = Thread.ofPlatform().name("chat-log").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Queues a record; never blocks
+     *
+     * @return false if the log is closed or backed up and the record was dropped
+     */
+    public boolean append(Kind kind, String room, long clientId, String clientName, String message) {
+        if (!isRunning || !pending.offer(new Entry(kind, System.currentTimeMillis(), room, clientId,
+                clientName, message))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records dropped because the writer fell behind (or after close)
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes out whatever is queued and stops the writer
+     */
+    @Override
+    public void close() {
+        isRunning = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+        try {
+            while (isRunning || !pending.isEmpty()) {
+                Entry first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                    commit(batch);
+                    batch.clear();
+                }
+                housekeeping();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.severe("ChatLog[%s]: writer failed, no longer logging", dir, e);
+            isRunning = false;
+        } finally {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Copies the batch into the segment(s) and syncs it once
+     */
+    private void commit(List<Entry> batch) throws IOException {
+        int from = segment.position();
+        for (Entry e : batch) {
+            encode(e);
+            int length = scratch.remaining();
+            if (length > segmentBytes) {
+                logger.warning("ChatLog[%s]: %s byte record from %s won't fit a segment, skipped", dir, length,
+                        e.getClientName());
+                dropped.incrementAndGet();
+                continue;
+            }
+            if (length > segment.remaining()) {
+                roll();// <-- forces what's left of the old segment
+                from = 0;
+            }
+            segment.put(scratch);
+        }
+        sync(from);
+    }
+
+    private void sync(int from) {
+        if (isSync && segment.position() > from) {
+            segment.force(from, segment.position() - from);
+        }
+    }
+
+    private void encode(Entry e) {
+        byte[] room = bytes(e.getRoom());
+        byte[] name = bytes(e.getClientName());
+        byte[] message = bytes(e.getMessage());
+        int body = 1 + 8 + 8 + 12 + length(room) + length(name) + length(message);
+        if (scratch.capacity() < HEADER_BYTES + body) {
+            scratch = ByteBuffer.allocate(Integer.highestOneBit(HEADER_BYTES + body) << 1);
+        }
+        scratch.clear();
+        scratch.position(HEADER_BYTES);
+        scratch.put((byte) e.getKind().ordinal());
+        scratch.putLong(e.getTimestamp());
+        scratch.putLong(e.getClientId());
+        putBytes(room);
+        putBytes(name);
+        putBytes(message);
+        crc.reset();
+        crc.update(scratch.array(), HEADER_BYTES, body);
+        scratch.putInt(0, body);
+        scratch.putInt(4, (int) crc.getValue());
+        scratch.flip();
+    }
+
+    private void putBytes(byte[] b) {
+        scratch.putInt(b == null ? -1 : b.length);
+        if (b != null) {
+            scratch.put(b);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] b) {
+        return b == null ? 0 : b.length;
+    }
+
+    /**
+     * Closes the current segment (if any) and maps a new one
+     */
+    private void roll() throws IOException {
+        closeSegment();
+        Path path = dir.resolve(String.format("%016d-%d%s", segmentIndex++, System.currentTimeMillis(), SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segments.add(path);
+        logger.info("ChatLog[%s]: Writing to %s", dir, path.getFileName());
+        enforceRetention();
+    }
+
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            segment.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("ChatLog[%s]: closing segment failed: %s", dir, e);
+        }
+        channel = null;
+        // the mapping itself is released once the buffer is collected
+        segment = null;
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        long drops = dropped.get();
+        if (drops != reportedDrops && now - lastDropReport >= DROP_REPORT_MS) {
+            logger.warning("ChatLog[%s]: %s records dropped so far", dir, drops);
+            reportedDrops = drops;
+            lastDropReport = now;
+        }
+        if (now - lastRetentionCheck >= RETENTION_CHECK_MS) {
+            enforceRetention();
+        }
+    }
+
+    /**
+     * Deletes the oldest segments (never the current one) while there are too
+     * many bytes or the segment after it is already past retainMs
+     */
+    private void enforceRetention() {
+        long now = System.currentTimeMillis();
+        lastRetentionCheck = now;
+        while (segments.size() > 1) {
+            Path oldest = segments.peekFirst();
+            Path next = segments.stream().skip(1).findFirst().get();
+            boolean isTooBig = (long) segments.size() * segmentBytes > retainBytes;
+            boolean isTooOld = now - startOf(next) > retainMs;
+            if (!isTooBig && !isTooOld) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(oldest);
+                logger.info("ChatLog[%s]: Deleted %s", dir, oldest.getFileName());
+            } catch (IOException e) {
+                logger.warning("ChatLog[%s]: couldn't delete %s: %s", dir, oldest, e);
+                break;
+            }
+            segments.pollFirst();
+        }
+    }
+
+    /**
+     * Segment files in the directory, oldest first
+     */
+    static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> result = new ArrayList<Path>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> SEGMENT_NAME.matcher(p.getFileName().toString()).matches()).sorted()
+                    .forEach(result::add);
+        }
+        return result;
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('-')));
+    }
+
+    private static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+    }
+
+    static Kind kind(int ordinal) {
+        return ordinal < KINDS.length ? KINDS[ordinal] : null;
+    }
+}
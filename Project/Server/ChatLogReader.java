@@ -0,0 +1,105 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Streams records back out of a ChatLog directory, oldest first.
+ * <p>
+ * Each segment is mapped read-only and walked sequentially. Only the room
+ * name is decoded for records of other rooms, the rest is skipped over. A
+ * segment ends at the first zero length, or at a record whose checksum
+ * doesn't match (the tail of a batch that was being written when the process
+ * died).
+ * </p>
+ * Safe to run against the directory of a live server; segments deleted by
+ * retention while being listed are skipped.
+ */
+public class ChatLogReader {
+    private final Path dir;
+    private final CRC32C crc = new CRC32C();
+    private ServerLog logger = ServerLog.of(ChatLogReader.class);
+
+    public ChatLogReader(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param room     case-insensitive room name, null for every room
+     * @param consumer called for each record in the order it was written
+     * @return number of records passed to the consumer
+     */
+    public long replay(String room, Consumer<ChatLog.Entry> consumer) throws IOException {
+        long count = 0;
+        for (Path path : ChatLog.listSegments(dir)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                count += replay(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), room,
+                        consumer);
+            } catch (NoSuchFileException e) {
+                // removed by retention since it was listed
+            }
+        }
+        return count;
+    }
+
+    private long replay(Path path, MappedByteBuffer segment, String room, Consumer<ChatLog.Entry> consumer) {
+        long count = 0;
+        ByteBuffer body = segment.duplicate();// <-- checksummed in place, without a slice per record
+        while (segment.remaining() >= ChatLog.HEADER_BYTES) {
+            int start = segment.position();
+            int length = segment.getInt();
+            int checksum = segment.getInt();
+            if (length <= 0 || length > segment.remaining()) {
+                break;// <-- end of what was written
+            }
+            body.limit(start + ChatLog.HEADER_BYTES + length).position(start + ChatLog.HEADER_BYTES);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                logger.warning("ChatLogReader: torn record at %s:%s, skipping the rest", path, start);
+                break;
+            }
+            ChatLog.Kind kind = ChatLog.kind(segment.get());
+            long timestamp = segment.getLong();
+            long clientId = segment.getLong();
+            String recordRoom = readString(segment);
+            if (kind != null && (room == null || room.equalsIgnoreCase(recordRoom))) {
+                String clientName = readString(segment);
+                String message = readString(segment);
+                consumer.accept(new ChatLog.Entry(kind, timestamp, recordRoom, clientId, clientName, message));
+                count++;
+            }
+            segment.position(start + ChatLog.HEADER_BYTES + length);
+        }
+        return count;
+    }
+
+    private static String readString(MappedByteBuffer segment) {
+        int length = segment.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        segment.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Usage: ChatLogReader [dir] [room]
+     */
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : ServerConfig.CHAT_LOG_DIR);
+        String room = args.length > 1 ? args[1] : null;
+        long count = new ChatLogReader(dir).replay(room, System.out::println);
+        System.err.println(count + " records");
+    }
+}
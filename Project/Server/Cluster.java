@@ -0,0 +1,660 @@
+package Project.Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import Project.Common.BinaryPayloadCodec;
+import Project.Common.Constants;
+import Project.Common.HistoryPayload;
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+import Project.Common.Phase;
+import Project.Common.WireProtocol;
+
+/**
+ * Spreads rooms over several server processes.
+ * <p>
+ * Every node knows the full node list (it114.cluster.nodes) and builds the
+ * same ConsistentHashRing, so all of them agree which node owns a room
+ * without asking. Each node keeps its own lobby; every other room lives only
+ * on its owner. A client joining or creating a room owned elsewhere stays
+ * connected to its own node: the owner adds a RemoteSession for it to the real
+ * room, and the client's node makes a RemoteRoom its current room, forwarding
+ * its messages and ready checks to the owner and the owner's payloads back to
+ * it.
+ * </p>
+ * <p>
+ * Nodes talk over one outbound link per peer (each node only writes to the
+ * links it opened and only reads from the ones it accepted). Envelopes are a
+ * length (int) followed by a type byte and its fields; strings are a length
+ * (int) and UTF-8 bytes, and client payloads travel inside them encoded with
+ * the BinaryPayloadCodec. Each node also reports its
+ * rooms to its peers every ServerConfig.ROOM_DIRECTORY_REFRESH_MS (when they
+ * changed) so LIST_ROOMS on any node covers the whole cluster.
+ * </p>
+ * When a link drops, the owner removes that node's clients from its rooms and
+ * the clients' node moves them back to its lobby; links reconnect on their
+ * own.
+ */
+public class Cluster {
+    private static final int MAGIC = 0x49544e32;// <-- "ITN2", bumped when the envelopes change
+    // a client frame plus the envelope's own fields, or a room report
+    private static final int MAX_ENVELOPE_LENGTH = 2 * WireProtocol.MAX_FRAME_LENGTH;
+    private static final int VIRTUAL_NODES = 128;
+    private static final int LINK_QUEUE = 64 * 1024;
+    private static final long RECONNECT_MS = 1_000;
+    /**
+     * Client ids carry the node that handed them out in their low bits so
+     * they're unique across the cluster
+     */
+    private static final int NODE_BITS = 10;
+    // envelope types
+    private static final byte JOIN = 1;
+    private static final byte CREATE = 2;
+    private static final byte LEAVE = 3;
+    private static final byte TO_ROOM = 4;
+    private static final byte TO_CLIENT = 5;
+    private static final byte ROOMS = 6;
+    private static final byte BROADCAST = 7;
+    private static final Phase[] PHASES = Phase.values();
+
+    private final int selfId;
+    private final Map<Integer, InetSocketAddress> nodes;
+    private final ConsistentHashRing ring;
+    private final RoomDirectory directory;
+    private final BinaryPayloadCodec codec = new BinaryPayloadCodec();
+    private final Map<Integer, PeerLink> links = new ConcurrentHashMap<Integer, PeerLink>();
+    // owner side: stand-ins for other nodes' clients, by node then client id
+    private final Map<Integer, Map<Long, RemoteSession>> proxies = new ConcurrentHashMap<Integer, Map<Long, RemoteSession>>();
+    // client side: stand-ins for other nodes' rooms, by normalized name
+    private final Map<String, RemoteRoom> remoteRooms = new ConcurrentHashMap<String, RemoteRoom>();
+    private ServerLog logger = ServerLog.of(Cluster.class);
+
+    /**
+     * @param nodes every node's link address by id, this one included
+     */
+    public Cluster(int selfId, Map<Integer, InetSocketAddress> nodes, RoomDirectory directory) {
+        if (selfId <= 0 || selfId >= 1 << NODE_BITS || !nodes.containsKey(selfId)) {
+            throw new IllegalArgumentException("Node id " + selfId + " must be 1-1023 and one of " + nodes.keySet());
+        }
+        this.selfId = selfId;
+        this.nodes = nodes;
+        this.directory = directory;
+        ring = new ConsistentHashRing(nodes.keySet(), VIRTUAL_NODES);
+    }
+
+    /**
+     * Parses "1=host:port,2=host:port"
+     */
+    public static Map<Integer, InetSocketAddress> parseNodes(String spec) {
+        Map<Integer, InetSocketAddress> nodes = new LinkedHashMap<Integer, InetSocketAddress>();
+        for (String node : spec.split(",")) {
+            if (node.isBlank()) {
+                continue;
+            }
+            String[] idAndAddress = node.trim().split("=");
+            String[] hostAndPort = idAndAddress[1].split(":");
+            nodes.put(Integer.parseInt(idAndAddress[0]),
+                    new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+        }
+        return nodes;
+    }
+
+    /**
+     * Starts accepting peers, connecting to them, and reporting rooms
+     */
+    public void start() throws IOException {
+        ServerSocket listener = new ServerSocket(nodes.get(selfId).getPort());
+        Thread.ofPlatform().name("cluster-accept").daemon().start(() -> accept(listener));
+        nodes.forEach((id, address) -> {
+            if (id != selfId) {
+                PeerLink link = new PeerLink(id, address);
+                links.put(id, link);
+                Thread.ofPlatform().name("cluster-out-" + id).daemon().start(link::run);
+            }
+        });
+        ScheduledExecutorService gossip = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("cluster-gossip").daemon().factory());
+        gossip.scheduleWithFixedDelay(this::reportRooms, ServerConfig.ROOM_DIRECTORY_REFRESH_MS,
+                ServerConfig.ROOM_DIRECTORY_REFRESH_MS, TimeUnit.MILLISECONDS);
+        logger.info("Cluster[%s]: Listening for peers on %s, %s nodes", selfId, nodes.get(selfId), nodes.size());
+    }
+
+    public int getSelfId() {
+        return selfId;
+    }
+
+    /**
+     * The lobby is always local; any other room is local if the ring says so
+     */
+    public boolean isLocal(String roomName) {
+        return roomName.equalsIgnoreCase(Constants.LOBBY) || ring.ownerOf(roomName) == selfId;
+    }
+
+    public int ownerOf(String roomName) {
+        return ring.ownerOf(roomName);
+    }
+
+    /**
+     * Makes a node-local counter value unique across the cluster
+     */
+    public long globalClientId(long localId) {
+        return localId << NODE_BITS | selfId;
+    }
+
+    // client side: forwarding a local client's requests to a room's owner
+
+    /**
+     * Sends the join to the owner if the room is remote; the owner answers the
+     * request
+     *
+     * @return false if the room is local and the caller should handle it
+     */
+    public boolean forwardJoin(String roomName, ServerThread client) {
+        return forward(JOIN, roomName, client);
+    }
+
+    /**
+     * Same as forwardJoin for CREATE_ROOM; the owner creates and joins it
+     */
+    public boolean forwardCreate(String roomName, ServerThread client) {
+        return forward(CREATE, roomName, client);
+    }
+
+    private boolean forward(byte type, String roomName, ServerThread client) {
+        if (isLocal(roomName)) {
+            return false;
+        }
+        long requestId = client.deferReply();
+        boolean isSent = send(ownerOf(roomName), out -> {
+            out.writeByte(type);
+            out.writeLong(client.getClientId());
+            writeString(out, client.getClientName());
+            writeString(out, roomName);
+            out.writeLong(requestId);
+        });
+        if (!isSent) {
+            client.replying(requestId, () -> client.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                    String.format("Room %s is on a server that's unavailable, please try again", roomName)));
+        }
+        return true;
+    }
+
+    /**
+     * A local client left a room another node owns
+     */
+    void leave(int owner, ServerThread client, String roomName) {
+        send(owner, out -> {
+            out.writeByte(LEAVE);
+            out.writeLong(client.getClientId());
+            writeString(out, roomName);
+        });
+    }
+
+    /**
+     * A local client's MESSAGE/READY for the remote room it's in
+     */
+    void toRoom(int owner, ServerThread client, Payload payload) {
+        byte[] body;
+        try {
+            body = codec.encode(payload);
+        } catch (IOException e) {
+            logger.warning("Cluster[%s]: couldn't encode %s: %s", selfId, payload, e);
+            return;
+        }
+        send(owner, out -> {
+            out.writeByte(TO_ROOM);
+            out.writeLong(client.getClientId());
+            out.write(body);
+        });
+    }
+
+    /**
+     * Asks every other node to broadcast the message in its rooms too
+     */
+    public void broadcast(String message) {
+        for (int id : links.keySet()) {
+            send(id, out -> {
+                out.writeByte(BROADCAST);
+                writeString(out, message);
+            });
+        }
+    }
+
+    // owner side: sending a room's payloads to the node its member is on
+
+    /**
+     * @param roomName the room the member is in on this node, "" for none
+     * @return false if the link is down or backed up (the room then drops the
+     *         member like any client it can't send to)
+     */
+    boolean toClient(int nodeId, long clientId, String roomName, OutboundFrame frame) {
+        byte[] framed;
+        try {
+            // shared frames cache this, so a broadcast is only encoded once
+            framed = frame.encodedFor(codec, null);
+        } catch (IOException e) {
+            logger.warning("Cluster[%s]: couldn't encode %s: %s", selfId, frame.getPayload(), e);
+            return false;
+        }
+        return send(nodeId, out -> {
+            out.writeByte(TO_CLIENT);
+            out.writeLong(clientId);
+            writeString(out, roomName);
+            out.write(framed);
+        });
+    }
+
+    private void reportRooms() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            List<Room> local = new ArrayList<Room>();
+            for (Room room : Server.INSTANCE.localRooms()) {
+                if (!room.getName().equalsIgnoreCase(Constants.LOBBY)) {
+                    local.add(room);
+                }
+            }
+            out.writeByte(ROOMS);
+            out.writeInt(local.size());
+            for (Room room : local) {
+                writeString(out, room.getName());
+                out.writeInt(room.getMemberCount());
+                out.writeByte(room.getPhase() == null ? -1 : room.getPhase().ordinal());
+            }
+            byte[] report = bytes.toByteArray();
+            links.values().forEach(link -> link.report(report));
+        } catch (Exception e) {
+            // a scheduled task that throws is never run again
+            logger.warning("Cluster[%s]: room report failed: %s", selfId, e);
+        }
+    }
+
+    /**
+     * writeUTF stops at 64KB, which a long chat line can pass
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in a single envelope, so available() is what's left of it
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Malformed envelope");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private interface Envelope {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private boolean send(int nodeId, Envelope envelope) {
+        PeerLink link = links.get(nodeId);
+        if (link == null) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            envelope.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            return false;// <-- can't happen writing to memory
+        }
+        return link.offer(bytes.toByteArray());
+    }
+
+    // inbound
+
+    private void accept(ServerSocket listener) {
+        while (true) {
+            try {
+                Socket socket = listener.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofPlatform().name("cluster-in").daemon().start(() -> read(socket));
+            } catch (IOException e) {
+                logger.warning("Cluster[%s]: accept failed: %s", selfId, e);
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        int nodeId = -1;// <-- set once the peer said who it is
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            if (in.readInt() != MAGIC) {
+                logger.info("Cluster[%s]: Ignoring a connection that isn't a cluster node: %s", selfId,
+                        socket.getRemoteSocketAddress());
+                return;
+            }
+            nodeId = in.readInt();
+            logger.info("Cluster[%s]: Node %s connected", selfId, nodeId);
+            while (true) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_ENVELOPE_LENGTH) {
+                    throw new IOException("Invalid envelope length " + length);
+                }
+                byte[] envelope = new byte[length];
+                in.readFully(envelope);
+                handle(nodeId, new DataInputStream(new ByteArrayInputStream(envelope)));
+            }
+        } catch (IOException e) {
+            if (nodeId > 0) {
+                logger.info("Cluster[%s]: Node %s disconnected: %s", selfId, nodeId, e);
+            }
+        } catch (RuntimeException e) {
+            // a bad envelope (or a bug in what it triggered) drops the link like a read error would
+            logger.severe("Cluster[%s]: dropping node %s's link after an unexpected error", selfId, nodeId, e);
+        } finally {
+            if (nodeId > 0) {
+                onNodeLost(nodeId);
+            }
+        }
+    }
+
+    private void handle(int nodeId, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case JOIN:
+            case CREATE: {
+                RemoteSession proxy = proxyFor(nodeId, in.readLong(), readString(in));
+                String roomName = readString(in);
+                long requestId = in.readLong();
+                proxy.replying(requestId, () -> {
+                    if (type == JOIN) {
+                        Room.joinRoom(roomName, proxy);
+                    } else {
+                        Room.createRoom(roomName, proxy);
+                    }
+                });
+                break;
+            }
+            case LEAVE: {
+                Map<Long, RemoteSession> fromNode = proxies.get(nodeId);
+                RemoteSession proxy = fromNode == null ? null : fromNode.get(in.readLong());
+                if (proxy == null) {
+                    break;
+                }
+                Room room = Server.INSTANCE.getRoom(readString(in));
+                Room current = proxy.getCurrentRoom();
+                if (room != null) {
+                    room.removeClient(proxy);
+                }
+                // a leave for a room it already moved on from (within this node) keeps it
+                if (room == null || current == room) {
+                    fromNode.remove(proxy.getClientId(), proxy);
+                }
+                break;
+            }
+            case TO_ROOM: {
+                Map<Long, RemoteSession> fromNode = proxies.get(nodeId);
+                RemoteSession proxy = fromNode == null ? null : fromNode.get(in.readLong());
+                Room room = proxy == null ? null : proxy.getCurrentRoom();
+                if (room == null) {
+                    break;
+                }
+                byte[] body = in.readAllBytes();
+                Payload p = codec.decode(body, 0, body.length);
+                if (p.getPayloadType() == PayloadType.MESSAGE) {
+                    room.sendMessage(proxy, p.getMessage());
+                } else if (p.getPayloadType() == PayloadType.READY && room instanceof GameRoom) {
+                    ((GameRoom) room).setReady(proxy);
+                }
+                break;
+            }
+            case TO_CLIENT: {
+                long clientId = in.readLong();
+                String roomName = readString(in);
+                byte[] framed = in.readAllBytes();
+                ServerThread session = Server.INSTANCE.getSession(clientId);
+                if (session != null) {
+                    deliver(session, roomName, codec.decode(framed, WireProtocol.FRAME_HEADER_LENGTH,
+                            framed.length - WireProtocol.FRAME_HEADER_LENGTH));
+                }
+                break;
+            }
+            case ROOMS: {
+                int count = in.readInt();
+                if (count < 0 || count > in.available() / 9) {// <-- an entry is at least 9 bytes
+                    throw new IOException("Malformed envelope");
+                }
+                List<RoomDirectory.Entry> rooms = new ArrayList<RoomDirectory.Entry>(count);
+                for (int i = 0; i < count; i++) {
+                    String name = readString(in);
+                    int members = in.readInt();
+                    int phase = in.readByte();
+                    rooms.add(new RoomDirectory.Entry(name, members,
+                            phase >= 0 && phase < PHASES.length ? PHASES[phase] : null));
+                }
+                directory.setRemoteRooms(nodeId, rooms);
+                break;
+            }
+            case BROADCAST:
+                Server.INSTANCE.broadcastLocal(readString(in));
+                break;
+            default:
+                logger.info("Cluster[%s]: Ignoring unknown envelope %s from node %s", selfId, type, nodeId);
+                break;
+        }
+    }
+
+    private RemoteSession proxyFor(int nodeId, long clientId, String clientName) {
+        return proxies.computeIfAbsent(nodeId, n -> new ConcurrentHashMap<Long, RemoteSession>())
+                .computeIfAbsent(clientId, id -> new RemoteSession(this, nodeId, id, clientName));
+    }
+
+    /**
+     * Hands a payload from a remote room to the local client; a JOIN_ROOM means
+     * the owner finished adding it, so the room's stand-in becomes its current
+     * room (and it leaves the one it was in, as a local join would)
+     *
+     * @param roomName the room it was sent from, "" for none
+     */
+    private void deliver(ServerThread session, String roomName, Payload payload) {
+        if (payload.getPayloadType() != PayloadType.JOIN_ROOM) {
+            Room current = session.getCurrentRoom();
+            if (!roomName.isEmpty() && (current == null || !current.getName().equalsIgnoreCase(roomName))) {
+                return;// <-- sent before the owner got the client's LEAVE
+            }
+            if (payload instanceof HistoryPayload) {
+                session.sendHistory((HistoryPayload) payload);// <-- falls back for older clients
+            } else {
+                session.send(OutboundFrame.of(payload));
+            }
+            return;
+        }
+        String joined = payload.getMessage();
+        if (joined == null) {
+            return;
+        }
+        if (isLocal(joined)) {
+            // the owner sent it back to the lobby (e.g. kicked), that's this node's
+            Server.INSTANCE.joinRoom(joined, session);
+            return;
+        }
+        session.send(OutboundFrame.of(payload));
+        // only made once the owner confirms, so names that don't exist leave nothing behind;
+        // joining inside compute() keeps onLeft() from dropping the stand-in as it's joined
+        RemoteRoom room = remoteRooms.compute(RoomRegistry.normalize(joined), (k, r) -> {
+            r = r == null ? new RemoteRoom(joined, this, ownerOf(joined)) : r;
+            r.onJoined(session);
+            return r;
+        });
+        Room oldRoom = session.swapCurrentRoom(room);
+        if (oldRoom != null && oldRoom != room) {
+            oldRoom.removeClient(session);
+        }
+    }
+
+    /**
+     * A local session left a remote room; once the last one is gone the stand-in
+     * is dropped, the same as the owner closing an empty room
+     */
+    void onLeft(RemoteRoom room) {
+        remoteRooms.computeIfPresent(RoomRegistry.normalize(room.getName()),
+                (k, r) -> r == room && r.getMembers().isEmpty() ? null : r);
+    }
+
+    /**
+     * The node's link to us closed: its clients leave our rooms and its rooms
+     * drop out of the listing
+     */
+    private void onNodeLost(int nodeId) {
+        Map<Long, RemoteSession> fromNode = proxies.remove(nodeId);
+        if (fromNode != null) {
+            fromNode.values().forEach(proxy -> {
+                proxy.detach();
+                Room room = proxy.getCurrentRoom();
+                if (room != null) {
+                    room.removeClient(proxy);
+                }
+            });
+        }
+        directory.setRemoteRooms(nodeId, List.of());
+        // our link to it is most likely dead too, but it won't notice until it writes
+        PeerLink link = links.get(nodeId);
+        if (link != null) {
+            link.reset();
+        }
+    }
+
+    /**
+     * Our link to the node failed: local clients in its rooms go back to the
+     * lobby
+     */
+    private void onLinkLost(int nodeId) {
+        for (RemoteRoom room : remoteRooms.values()) {
+            if (room.getOwnerId() != nodeId) {
+                continue;
+            }
+            for (ServerThread client : new ArrayList<ServerThread>(room.getMembers())) {
+                room.getMembers().remove(client);
+                client.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                        String.format("Lost the server hosting %s, back to the lobby", room.getName()));
+                Server.INSTANCE.joinRoom(Constants.LOBBY, client);
+            }
+            onLeft(room);
+        }
+    }
+
+    /**
+     * Outbound connection to one peer; reconnects until the process exits
+     */
+    private class PeerLink {
+        private final int nodeId;
+        private final InetSocketAddress address;
+        private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(LINK_QUEUE);
+        private volatile boolean isConnected = false;
+        private volatile byte[] lastReport = null;// <-- resent whenever the link comes back
+        private volatile Socket socket = null;
+
+        private PeerLink(int nodeId, InetSocketAddress address) {
+            this.nodeId = nodeId;
+            this.address = address;
+        }
+
+        /**
+         * @return false if the link is down or backed up, or the envelope is
+         *         bigger than the other side accepts
+         */
+        private boolean offer(byte[] envelope) {
+            return isConnected && envelope.length <= MAX_ENVELOPE_LENGTH && queue.offer(envelope);
+        }
+
+        /**
+         * Drops the connection and wakes the writer so it reconnects
+         */
+        private void reset() {
+            Socket s = socket;
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            queue.offer(new byte[0]);
+        }
+
+        /**
+         * Queues the room report unless it's what was last sent
+         */
+        private void report(byte[] report) {
+            if (!Arrays.equals(report, lastReport) && offer(report)) {
+                lastReport = report;
+            }
+        }
+
+        private void run() {
+            List<byte[]> batch = new ArrayList<byte[]>();
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    this.socket = socket;
+                    socket.connect(address, (int) RECONNECT_MS);
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                            ServerConfig.FLUSH_MAX_BYTES));
+                    out.writeInt(MAGIC);
+                    out.writeInt(selfId);
+                    out.flush();
+                    queue.clear();
+                    lastReport = null;
+                    isConnected = true;
+                    logger.info("Cluster[%s]: Connected to node %s at %s", selfId, nodeId, address);
+                    while (true) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch);
+                        for (byte[] envelope : batch) {
+                            if (envelope.length == 0) {
+                                continue;// <-- reset()'s wake up
+                            }
+                            out.writeInt(envelope.length);
+                            out.write(envelope);
+                        }
+                        batch.clear();
+                        out.flush();// <-- once per batch, however many envelopes queued up
+                        if (socket.isClosed()) {
+                            throw new IOException("Reset after the node's link to us closed");
+                        }
+                    }
+                } catch (IOException e) {
+                    if (isConnected) {
+                        isConnected = false;
+                        logger.info("Cluster[%s]: Lost node %s: %s", selfId, nodeId, e);
+                        onLinkLost(nodeId);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch.clear();
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
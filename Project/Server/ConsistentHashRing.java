@@ -0,0 +1,61 @@
+package Project.Server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps room names to the node that owns them.
+ * <p>
+ * Every node is hashed onto the ring at several points (virtual nodes) and a
+ * name belongs to the first point at or after its own hash, so each node gets
+ * a roughly even share, and adding or removing a node only moves the names
+ * next to its points. Every node builds the same ring from the same node list,
+ * so they all agree on owners without talking to each other.
+ * </p>
+ * Immutable, safe to share between threads.
+ */
+public class ConsistentHashRing {
+    private final TreeMap<Long, Integer> points = new TreeMap<Long, Integer>();
+
+    /**
+     * @param virtualNodes points per node; more evens out the shares
+     */
+    public ConsistentHashRing(Collection<Integer> nodeIds, int virtualNodes) {
+        for (int nodeId : nodeIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash("node-" + nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    /**
+     * @return the owning node's id, -1 if the ring is empty
+     */
+    public int ownerOf(String roomName) {
+        if (points.isEmpty()) {
+            return -1;
+        }
+        Map.Entry<Long, Integer> point = points.ceilingEntry(hash(RoomRegistry.normalize(roomName)));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes with a final mix so nearby names (room-1,
+     * room-2) land far apart
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,30 @@
+package Project.Server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sits directly on top of the socket stream so every call that reaches it is
+ * counted as one write syscall
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private final WriteStats stats;
+
+    public CountingOutputStream(OutputStream out, WriteStats stats) {
+        super(out);
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        stats.onSyscall(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        stats.onSyscall(len);
+    }
+}
@@ -1,32 +1,86 @@
 package Project.Server;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import Project.Common.Constants;
 import Project.Common.Phase;
-import Project.Common.TextFX;
 import Project.Common.TimedEvent;
 import Project.Common.TextFX.Color;
 
 public class GameRoom extends Room {
 
-    private ConcurrentHashMap<Long, ServerPlayer> players = new ConcurrentHashMap<Long, ServerPlayer>();
+    private final ConcurrentHashMap<Long, ServerPlayer> players = new ConcurrentHashMap<Long, ServerPlayer>();
 
     private TimedEvent readyCheckTimer = null;
-    private Phase currentPhase = Phase.READY;
+    private TimedEvent sessionTimer = null;
+    // bumped when the room closes; timer events from an earlier use check it and
+    // do nothing, since a pooled room may be running under another name by then
+    private volatile int use = 0;
+    private final boolean isPoolable;// <-- only rooms on the shared workers go back to the pool
+    private ServerLog logger = ServerLog.of(GameRoom.class);
+    private volatile Phase currentPhase = Phase.READY;// <-- volatile for getPhase(), only changed on the mailbox
+    // names (normalized) that were ready when the snapshot was taken and haven't rejoined yet
+    private final Set<String> restoredReady = new HashSet<String>();
+    private volatile ServerSnapshot.RoomState state;// <-- republished on the mailbox, read by snapshots
 
     public GameRoom(String name) {
         super(name);
+        isPoolable = true;
+        state = new ServerSnapshot.RoomState(name, true, Phase.READY, List.of());
+    }
+
+    public GameRoom(String name, Executor executor) {
+        super(name, executor);
+        isPoolable = false;
+        state = new ServerSnapshot.RoomState(name, true, Phase.READY, List.of());
+    }
+
+    /**
+     * Puts back the phase and ready flags from a snapshot; ready flags are
+     * matched up by name as players rejoin. A session that was in progress starts
+     * over since its timer didn't survive the restart.
+     */
+    protected void restore(ServerSnapshot.RoomState saved) {
+        execute(() -> {
+            saved.getReadyNames().forEach(n -> restoredReady.add(RoomRegistry.normalize(n)));
+            if (saved.getPhase() == Phase.IN_PROGRESS) {
+                start();
+            }
+            publishState();
+        });
+    }
+
+    @Override
+    public ServerSnapshot.RoomState getState() {
+        return state;
+    }
+
+    /**
+     * Copies the phase and ready players into a new RoomState. Mailbox only;
+     * call after anything the snapshot keeps changes.
+     */
+    private void publishState() {
+        List<String> ready = new ArrayList<String>(restoredReady);
+        players.values().forEach(p -> {
+            if (p.isReady()) {
+                ready.add(p.getClientName());
+            }
+        });
+        state = new ServerSnapshot.RoomState(getName(), true, currentPhase, ready);
     }
 
     @Override
-    protected synchronized void addClient(ServerThread client) {
-        super.addClient(client);
+    protected void onJoin(ServerThread client) {
+        super.onJoin(client);
         if (!players.containsKey(client.getClientId())) {
             ServerPlayer sp = new ServerPlayer(client);
             players.put(client.getClientId(), sp);
-            System.out.println(TextFX.colorize(client.getClientName() + " join GameRoom " + getName(), Color.WHITE));
+            logger.info(Color.WHITE, "%s join GameRoom %s", client.getClientName(), getName());
 
             // sync game state
 
@@ -36,42 +90,62 @@ public class GameRoom extends Room {
             players.values().forEach(p -> {
                 sp.sendReadyState(p.getClientId(), p.isReady());
             });
+            // they were ready before the restart
+            if (restoredReady.remove(RoomRegistry.normalize(client.getClientName())) && currentPhase == Phase.READY) {
+                sp.setReady(true);
+                syncReadyState(sp);
+                readyCheck();
+                publishState();
+            }
         }
     }
 
     @Override
-    protected synchronized void removeClient(ServerThread client) {
-        super.removeClient(client);
-        // Note: base Room can close (if empty) before GameRoom cleans up (possibly)
-        if (players.containsKey(client.getClientId())) {
-            players.remove(client.getClientId());
-            System.out.println(TextFX.colorize(client.getClientName() + " left GameRoom " + getName(), Color.WHITE));
+    protected void onLeave(ServerThread client) {
+        // Note: base Room can close (if empty) right after this
+        ServerPlayer sp = players.remove(client.getClientId());
+        if (sp != null) {
+            logger.info(Color.WHITE, "%s left GameRoom %s", client.getClientName(), getName());
+            if (sp.isReady()) {
+                publishState();
+            }
         }
     }
 
-    public synchronized void setReady(ServerThread client) {
+    public void setReady(ServerThread client) {
+        offer(client, () -> handleReady(client));
+    }
+
+    private void handleReady(ServerThread client) {
         if (currentPhase != Phase.READY) {
             client.sendMessage(Constants.DEFAULT_CLIENT_ID, "Can't initiate ready check at this time");
             return;
         }
         long playerId = client.getClientId();
-        if (players.containsKey(playerId)) {
-            // players.get(playerId).setReady(!players.get(playerId).isReady()); //<--
+        // local ref since a failed send in syncReadyState can remove the player
+        ServerPlayer sp = players.get(playerId);
+        if (sp != null) {
+            // sp.setReady(!sp.isReady()); //<--
             // toggles ready state
-            players.get(playerId).setReady(true);// <-- simply sets the ready state to true
-            syncReadyState(players.get(playerId));
-            System.out.println(TextFX.colorize(players.get(playerId).getClientName() + " marked themselves as ready ",
-                    Color.YELLOW));
+            sp.setReady(true);// <-- simply sets the ready state to true
+            syncReadyState(sp);
+            publishState();
+            logger.info(Color.YELLOW, "%s marked themselves as ready ", sp.getClientName());
             readyCheck();
         } else {
-            System.err.println(TextFX.colorize("Player doesn't exist: " + client.getClientName(), Color.RED));
+            logger.warning(Color.RED, "Player doesn't exist: %s", client.getClientName());
         }
     }
 
-    private synchronized void readyCheck() {
+    private void readyCheck() {
         int MINIMUM_REQUIRED_TO_START = 2;
         if (readyCheckTimer == null) {
-            readyCheckTimer = new TimedEvent(30, () -> {
+            int thisUse = use;
+            // the timer fires on its own thread, hand the expiry to the mailbox
+            readyCheckTimer = new TimedEvent(30, () -> execute(() -> {
+                if (thisUse != use) {
+                    return;// <-- closed since
+                }
                 long numReady = players.values().stream().filter(p -> {
                     return p.isReady();
                 }).count();
@@ -83,70 +157,113 @@ public class GameRoom extends Room {
                 if (meetsMinimum || everyoneIsReady) {
                     start();
                 } else {
-                    sendMessage(null, "Minimum players not met during ready check, please try again");
-                    // added after recording as I forgot to reset the ready check
-                    players.values().forEach(p -> {
-                        p.setReady(false);
-                        syncReadyState(p);
+                    batch(() -> {
+                        announce("Minimum players not met during ready check, please try again");
+                        // added after recording as I forgot to reset the ready check
+                        players.values().forEach(p -> {
+                            p.setReady(false);
+                            syncReadyState(p);
+                        });
                     });
+                    restoredReady.clear();
+                    publishState();
                 }
                 readyCheckTimer.cancel();
                 readyCheckTimer = null;
-            });
-            readyCheckTimer.setTickCallback((time) -> System.out.println("Ready Countdown: " + time));
+            }));
+            readyCheckTimer.setTickCallback((time) -> logger.info("Room[%s]: Ready Countdown: %s", getName(), time));
         }
     }
 
+    @Override
+    public Phase getPhase() {
+        return currentPhase;
+    }
+
     private void changePhase(Phase incomingChange) {
         if (currentPhase != incomingChange) {
             currentPhase = incomingChange;
             syncCurrentPhase();
+            publishState();
         }
     }
 
     private void start() {
         if (currentPhase != Phase.READY) {
-            System.err.println("Invalid phase called during start()");
+            logger.warning("Invalid phase called during start()");
             return;
         }
         // initialization of game state
         changePhase(Phase.IN_PROGRESS);
         // the session handles user interactions
         sendMessage(null, "Session started, have fun");
-        new TimedEvent(30, () -> {
+        int thisUse = use;
+        sessionTimer = new TimedEvent(30, () -> execute(() -> {
+            if (thisUse != use) {
+                return;// <-- closed since
+            }
+            sessionTimer = null;
             sendMessage(null, "Session is over, redo ready check");
             end();
-        }).setTickCallback((time) -> {
-            sendMessage(null, "Time reamining: " + time);
+        }));
+        sessionTimer.setTickCallback((time) -> {
+            if (thisUse == use) {
+                sendMessage(null, "Time reamining: " + time);
+            }
         });
     }
 
+    /**
+     * Stops the timers and, for rooms on the shared workers, hands the room to
+     * the RoomPool for reuse. Mailbox only.
+     */
+    @Override
+    public void close() {
+        super.close();
+        use++;
+        if (readyCheckTimer != null) {
+            readyCheckTimer.cancel();
+            readyCheckTimer = null;
+        }
+        if (sessionTimer != null) {
+            sessionTimer.cancel();
+            sessionTimer = null;
+        }
+        if (isPoolable) {
+            Server.INSTANCE.getRoomPool().release(this);
+        }
+    }
+
+    @Override
+    protected void onReopen() {
+        players.clear();
+        restoredReady.clear();
+        currentPhase = Phase.READY;
+        publishState();
+    }
+
     private void end() {
-        // mark everyone not ready
-        players.values().forEach(p -> {
-            // TODO fix/optimize, avoid nested loops if/when possible
-            p.setReady(false);
-            syncReadyState(p);
+        // everyone gets N ready updates plus the phase, flush them together
+        batch(() -> {
+            // mark everyone not ready
+            players.values().forEach(p -> {
+                // TODO fix/optimize, avoid nested loops if/when possible
+                p.setReady(false);
+                syncReadyState(p);
+            });
+            restoredReady.clear();
+            changePhase(Phase.READY);// <-- publishes the cleared flags too
         });
-        changePhase(Phase.READY);
-
     }
 
-    // start send/sync methods
+    // start send/sync methods (mailbox only)
+    // every player is a member of the room, so these go out as shared frames
     private void syncCurrentPhase() {
-        Iterator<ServerPlayer> iter = players.values().iterator();
-        while (iter.hasNext()) {
-            ServerPlayer sp = iter.next();
-            sp.sendPhase(currentPhase);
-        }
+        broadcast(ServerThread.phasePayload(currentPhase.name()));
     }
 
-    private void syncReadyState(ServerPlayer csp) {
-        Iterator<ServerPlayer> iter = players.values().iterator();
-        while (iter.hasNext()) {
-            ServerPlayer sp = iter.next();
-            sp.sendReadyState(csp.getClientId(), csp.isReady());
-        }
+    void syncReadyState(ServerPlayer csp) {
+        broadcast(ServerThread.readyPayload(csp.getClientId(), csp.isReady()));
     }
     // end send/sync methods
 }
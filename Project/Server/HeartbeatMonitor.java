@@ -0,0 +1,78 @@
+package Project.Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pings quiet clients and evicts the ones that stop answering.
+ * <p>
+ * Every session has exactly one pending check on a shared TimingWheel. Inbound
+ * traffic only bumps the session's last-activity timestamp, so a busy client
+ * costs nothing here; the check looks at how long the client has been quiet
+ * when it fires and decides when to look again.
+ * </p>
+ * Clients that can't decode PING (legacy object streams and framed clients
+ * older than WireProtocol.HEARTBEAT_VERSION) are never pinged or evicted for
+ * being idle.
+ */
+public class HeartbeatMonitor {
+    private final TimingWheel wheel;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final LongAdder pings = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private ServerLog logger = ServerLog.of(HeartbeatMonitor.class);
+
+    public HeartbeatMonitor(TimingWheel wheel, long intervalMs, long timeoutMs) {
+        this.wheel = wheel;
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMs, intervalMs));
+    }
+
+    /**
+     * Starts watching a new connection; the check stops rescheduling itself once
+     * the session is closed
+     */
+    public void watch(ServerThread session) {
+        schedule(session, intervalNanos);
+    }
+
+    private void schedule(ServerThread session, long delayNanos) {
+        wheel.schedule(() -> check(session), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs on the wheel thread
+     */
+    private void check(ServerThread session) {
+        if (session.isClosed()) {
+            return;
+        }
+        long idle = System.nanoTime() - session.getLastActivity();
+        if (idle >= timeoutNanos && session.supportsHeartbeat()) {
+            evictions.increment();
+            logger.info("Evicting %s after %sms without traffic (%s)", session.getClientName(),
+                    TimeUnit.NANOSECONDS.toMillis(idle), this);
+            // leaving a room takes its lock and broadcasts, keep that off the wheel
+            Thread.ofVirtual().name("evict-" + session.getClientId()).start(session::evictIdle);
+            return;
+        }
+        long next;
+        if (idle < intervalNanos) {
+            next = intervalNanos - idle;// <-- heard from recently, look again once it's due a ping
+        } else {
+            if (session.supportsHeartbeat()) {
+                pings.increment();
+                session.sendPing();
+            }
+            // clients that can't answer a ping just keep getting checked every interval
+            next = idle < timeoutNanos ? Math.min(intervalNanos, timeoutNanos - idle) : intervalNanos;
+        }
+        schedule(session, next);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pings[%s] evictions[%s]", pings.sum(), evictions.sum());
+    }
+}
@@ -0,0 +1,115 @@
+package Project.Server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one owner's events one at a time, in the order they were posted, on a
+ * worker pool shared by every mailbox.
+ * <p>
+ * At most one worker drains a mailbox at a time, so whatever state only its
+ * events touch needs no lock. A drain runs at most BATCH events before handing
+ * the worker back, so one busy room can't starve the others sharing the pool.
+ * </p>
+ * offer() is bounded by the capacity and is meant for client traffic, which
+ * can be refused; post() always accepts since membership changes and timers
+ * must never be lost.
+ */
+public class Mailbox {
+    private static final int BATCH = 64;
+    private static final ExecutorService SHARED = Executors.newFixedThreadPool(ServerConfig.ROOM_WORKERS,
+            Thread.ofPlatform().name("room-worker-", 1).daemon().factory());
+    private volatile String name;// <-- changes when a pooled room is reopened
+    private final Executor executor;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private ServerLog logger = ServerLog.of(Mailbox.class);
+
+    /**
+     * Uses the shared room worker pool
+     */
+    public Mailbox(String name) {
+        this(name, SHARED, ServerConfig.ROOM_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * @param executor runs the drains; Runnable::run drains on the posting
+     *                 thread (benchmarks)
+     */
+    public Mailbox(String name, Executor executor, int capacity) {
+        this.name = name;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Used to label log output; follows the room's name when a pooled room is
+     * reopened
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Queues an event unless capacity events are already waiting
+     *
+     * @return false if it was refused
+     */
+    public boolean offer(Runnable event) {
+        if (depth.get() >= capacity) {
+            return false;
+        }
+        post(event);
+        return true;
+    }
+
+    /**
+     * Queues an event regardless of capacity
+     */
+    public void post(Runnable event) {
+        depth.incrementAndGet();
+        events.add(event);
+        schedule();
+    }
+
+    /**
+     * Number of events waiting to run
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    private void schedule() {
+        if (isScheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable event;
+            for (int i = 0; i < BATCH && (event = events.poll()) != null; i++) {
+                depth.decrementAndGet();
+                try {
+                    event.run();
+                } catch (Exception e) {
+                    // one bad event shouldn't take the room down with it
+                    logger.severe("Mailbox[%s]: event failed", name, e);
+                }
+            }
+        } finally {
+            isScheduled.set(false);
+        }
+        // something may have been posted after the last poll but before the flag was
+        // cleared, or the batch ran out; either way go around again
+        if (!events.isEmpty()) {
+            schedule();
+        }
+    }
+}
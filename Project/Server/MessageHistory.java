@@ -0,0 +1,136 @@
+package Project.Server;
+
+import java.nio.charset.StandardCharsets;
+
+import Project.Common.HistoryPayload;
+
+/**
+ * The last few messages sent in a room, kept so joiners can catch up.
+ * <p>
+ * Entries live in parallel primitive arrays (sender id, timestamp, offsets)
+ * with the UTF-8 sender names and texts packed back to back in a single byte
+ * ring, so a room's history is a handful of arrays no matter how many
+ * messages went through it, rather than a String and a node per message. The
+ * arrays are allocated at full size on the first message and reused from then
+ * on; rooms nobody talks in cost nothing.
+ * </p>
+ * The oldest entries are dropped once either maxEntries or maxBytes is
+ * reached. Not thread safe; a Room only touches it from its mailbox.
+ */
+public class MessageHistory {
+    private final int maxEntries;
+    private final int maxBytes;
+    private long[] clientIds;
+    private long[] sentAt;
+    private int[] offsets;
+    private int[] nameLengths;
+    private int[] textLengths;
+    private byte[] bytes;
+    private int head = 0;// <-- oldest entry
+    private int count = 0;
+    private int usedBytes = 0;
+
+    /**
+     * @param maxEntries 0 (or maxBytes 0) keeps nothing
+     * @param maxBytes   room for names and texts (UTF-8); an entry bigger than a
+     *                   quarter of this isn't kept so one long message can't wipe
+     *                   out the rest
+     */
+    public MessageHistory(int maxEntries, int maxBytes) {
+        this.maxEntries = Math.max(maxEntries, 0);
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return false if the history is disabled or the entry is too big to keep
+     */
+    public boolean add(long clientId, String clientName, String message, long sentAt) {
+        if (maxEntries == 0 || maxBytes == 0 || message == null) {
+            return false;
+        }
+        byte[] name = clientName == null ? new byte[0] : clientName.getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int length = name.length + text.length;
+        if (length > maxBytes / 4) {
+            return false;
+        }
+        if (bytes == null) {
+            allocate();
+        }
+        while (count == maxEntries || usedBytes + length > maxBytes) {
+            dropOldest();
+        }
+        int slot = (head + count) % maxEntries;
+        int offset = count == 0 ? 0 : (offsets[head] + usedBytes) % maxBytes;
+        clientIds[slot] = clientId;
+        this.sentAt[slot] = sentAt;
+        offsets[slot] = offset;
+        nameLengths[slot] = name.length;
+        textLengths[slot] = text.length;
+        put(name, offset);
+        put(text, (offset + name.length) % maxBytes);
+        usedBytes += length;
+        count++;
+        return true;
+    }
+
+    /**
+     * Forgets every entry but keeps the arrays, e.g. for a pooled room's next
+     * use
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+        usedBytes = 0;
+    }
+
+    /**
+     * Copies every entry, oldest first, into one payload
+     */
+    public HistoryPayload toPayload() {
+        HistoryPayload hp = new HistoryPayload();
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % maxEntries;
+            int nameOffset = offsets[slot];
+            hp.add(clientIds[slot], get(nameOffset, nameLengths[slot]),
+                    get((nameOffset + nameLengths[slot]) % maxBytes, textLengths[slot]), sentAt[slot]);
+        }
+        return hp;
+    }
+
+    private void allocate() {
+        clientIds = new long[maxEntries];
+        sentAt = new long[maxEntries];
+        offsets = new int[maxEntries];
+        nameLengths = new int[maxEntries];
+        textLengths = new int[maxEntries];
+        bytes = new byte[maxBytes];
+    }
+
+    private void dropOldest() {
+        usedBytes -= nameLengths[head] + textLengths[head];
+        head = (head + 1) % maxEntries;
+        count--;
+    }
+
+    private void put(byte[] src, int offset) {
+        int first = Math.min(src.length, maxBytes - offset);
+        System.arraycopy(src, 0, bytes, offset, first);
+        System.arraycopy(src, first, bytes, 0, src.length - first);// <-- wrapped around the end
+    }
+
+    private String get(int offset, int length) {
+        if (offset + length <= maxBytes) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] joined = new byte[length];
+        int first = maxBytes - offset;
+        System.arraycopy(bytes, offset, joined, 0, first);
+        System.arraycopy(bytes, 0, joined, first, length - first);
+        return new String(joined, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,256 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Project.Common.FrameCompressor;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.WireProtocol;
+
+/**
+ * Non-blocking transport for a single client.
+ * <p>
+ * Reads are parsed into frames on the owning NioEventLoop and handed to the
+ * ServerThread session. Sends may come from any thread; they land in the
+ * session's OutboundQueue and the event loop encodes and writes them.
+ * </p>
+ */
+public class NioConnection {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private SelectionKey key;
+    private ServerThread session;
+    private volatile PayloadCodec codec;// <-- null until the handshake is read
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private ByteBuffer handshakeReply;// <-- written before anything from the outbound queue
+    private ByteBuffer current;// <-- bytes left over from a partial write
+    private byte[] pendingFrame;// <-- encoded frame that didn't fit in the last gather
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isOpen = new AtomicBoolean(true);
+    private ServerLog logger = ServerLog.of(NioConnection.class);
+
+    public NioConnection(SocketChannel channel, NioEventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    protected void setSession(ServerThread session) {
+        this.session = session;
+    }
+
+    protected boolean isOpen() {
+        return isOpen.get();
+    }
+
+    /**
+     * Called on the event loop thread
+     */
+    protected void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException e) {
+            close();
+        }
+    }
+
+    // read side (event loop thread only)
+    protected void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (codec != null || readHandshake()) {
+                readFrames();
+            }
+            readBuffer.compact();
+        } catch (IOException e) {
+            logger.info("Connection dropped: %s", e.getMessage());
+            close();
+        }
+    }
+
+    private boolean readHandshake() throws IOException {
+        if (readBuffer.remaining() < WireProtocol.HANDSHAKE_LENGTH) {
+            return false;
+        }
+        byte[] handshake = new byte[WireProtocol.HANDSHAKE_LENGTH];
+        readBuffer.get(handshake);
+        if (WireProtocol.isLegacyStream(handshake[0], handshake[1])) {
+            throw new IOException("Legacy object stream clients aren't supported by the NIO transport");
+        }
+        if (!WireProtocol.isHandshake(handshake)) {
+            throw new IOException("Unrecognized handshake");
+        }
+        FrameCompressor compressor = ServerConfig.compressorFor(handshake);
+        session.setCompressor(compressor);
+        session.setProtocolVersion(WireProtocol.negotiateVersion(handshake));
+        codec = WireProtocol.negotiate(handshake);
+        handshakeReply = ByteBuffer.wrap(WireProtocol.handshake(WireProtocol.negotiateVersion(handshake),
+                codec.getId(), compressor != null));
+        requestFlush();
+        return true;
+    }
+
+    private void readFrames() throws IOException {
+        while (isOpen() && readBuffer.remaining() >= WireProtocol.FRAME_HEADER_LENGTH) {
+            int start = readBuffer.position();
+            int header = readBuffer.getInt(start);
+            int length = WireProtocol.checkFrameLength(header & ~FrameCompressor.FLAG_COMPRESSED);
+            int frameLength = WireProtocol.FRAME_HEADER_LENGTH + length;
+            if (readBuffer.remaining() < frameLength) {
+                ensureCapacity(frameLength);
+                return;
+            }
+            byte[] data = readBuffer.array();
+            int offset = readBuffer.arrayOffset() + start + WireProtocol.FRAME_HEADER_LENGTH;
+            if ((header & FrameCompressor.FLAG_COMPRESSED) != 0) {
+                FrameCompressor compressor = session.getCompressor();
+                if (compressor == null) {
+                    throw new IOException("Received a compressed frame but compression wasn't negotiated");
+                }
+                data = compressor.inflate(data, offset, length);
+                offset = 0;
+                length = data.length;
+            }
+            Payload payload = codec.decode(data, offset, length);
+            readBuffer.position(start + frameLength);
+            session.receive(payload);
+        }
+    }
+
+    /**
+     * Grows the read buffer when a frame won't fit; the buffer is in read mode
+     * and is left in read mode
+     */
+    private void ensureCapacity(int frameLength) {
+        if (readBuffer.capacity() >= frameLength) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(frameLength);
+        larger.put(readBuffer);
+        larger.flip();
+        readBuffer = larger;
+    }
+    // end read side
+
+    // write side
+    /**
+     * Asks the event loop to drain the session's outbound queue; cheap to call
+     * from any thread since only the first caller schedules a flush
+     */
+    protected void requestFlush() {
+        if (isOpen() && isFlushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    protected void onWritable() {
+        flush();
+    }
+
+    /**
+     * Encodes queued payloads back to back into the loop's shared write buffer
+     * so a burst turns into a single channel write
+     *
+     * @return the buffer to write or null if there's nothing to send
+     */
+    private ByteBuffer gather() throws IOException {
+        ByteBuffer buffer = loop.getWriteBuffer();
+        buffer.clear();
+        if (handshakeReply != null) {
+            buffer.put(handshakeReply);
+            handshakeReply = null;
+        }
+        while (codec != null) {// <-- nothing is encoded until the handshake picks a codec
+            if (pendingFrame == null) {
+                OutboundFrame frame = session.getOutbound().poll();
+                if (frame == null) {
+                    break;
+                }
+                // shared frames were likely already encoded for another member
+                pendingFrame = frame.encodedFor(codec, session.getCompressor());
+                session.getWriteStats().onPayload();
+            }
+            if (pendingFrame.length > buffer.remaining()) {
+                if (buffer.position() > 0) {
+                    break;// <-- send what we have, this frame goes next time
+                }
+                // larger than the whole shared buffer, write it straight from the frame
+                ByteBuffer large = ByteBuffer.wrap(pendingFrame);
+                pendingFrame = null;
+                return large;
+            }
+            buffer.put(pendingFrame);
+            pendingFrame = null;
+        }
+        buffer.flip();
+        return buffer.hasRemaining() ? buffer : null;
+    }
+
+    private void flush() {
+        if (!isOpen() || key == null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer;
+            while ((buffer = current != null ? current : gather()) != null) {
+                session.getWriteStats().onSyscall(channel.write(buffer));
+                if (buffer.hasRemaining()) {
+                    // socket buffer is full; keep the rest (the loop's buffer is reused by
+                    // other connections) and wait for OP_WRITE
+                    current = buffer == loop.getWriteBuffer()
+                            ? ByteBuffer.allocate(buffer.remaining()).put(buffer).flip()
+                            : buffer;
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    return;
+                }
+                current = null;
+                session.getWriteStats().onFlush();
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            isFlushScheduled.set(false);
+            // a sender may have queued after our last poll but before the reset above
+            if (codec != null && !session.getOutbound().isEmpty()) {
+                requestFlush();
+            }
+        } catch (IOException e) {
+            logger.info("Connection dropped while writing: %s", e.getMessage());
+            close();
+        }
+    }
+    // end write side
+
+    /**
+     * Safe to call from any thread and more than once
+     */
+    protected void close() {
+        if (!isOpen.compareAndSet(true, false)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.info("Channel already closed");
+        }
+        if (session != null) {
+            FrameCompressor compressor = session.getCompressor();
+            if (compressor != null) {
+                compressor.close();
+            }
+            session.onTransportClosed();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single I/O thread that multiplexes many NioConnections over one Selector.
+ * <br>
+ * Anything that touches a SelectionKey must run on this thread, other threads
+ * hand work over through execute().
+ */
+public class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final String name;
+    private volatile Thread thread;// <-- created by start()
+    private volatile boolean isRunning = true;
+    // shared by every connection on this loop to gather frames into a single write
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(ServerConfig.FLUSH_MAX_BYTES);
+    private ServerLog logger = ServerLog.of(NioEventLoop.class);
+
+    public NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        this.name = name;
+    }
+
+    public void start() {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Only valid on the loop thread and only until the current flush returns
+     */
+    protected ByteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    protected boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues a task to run on the loop thread and wakes the selector if needed
+     */
+    protected void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    protected void register(NioConnection connection) {
+        execute(() -> connection.register(selector));
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.severe("Event loop task failed on %s", name, e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.info("Event loop starting: %s", name);
+        while (isRunning) {
+            try {
+                // don't block if work was queued from this thread during the last pass
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+            } catch (IOException e) {
+                logger.severe("Selector failed on %s", name, e);
+                break;
+            }
+            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (RuntimeException e) {
+                    // a bad payload (or a bug in what it triggered) only costs its own connection,
+                    // not every other one on this loop
+                    logger.severe("Closing a connection on %s after an unexpected error", name, e);
+                    connection.close();
+                }
+            }
+            runTasks();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.severe("Couldn't close the selector on %s", name, e);
+        }
+        logger.info("Event loop terminated: %s", name);
+    }
+}
@@ -0,0 +1,57 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Accepts clients on the calling thread and spreads them round-robin over a
+ * small fixed set of NioEventLoops instead of one thread per client.
+ */
+public class NioTransport {
+    private final NioEventLoop[] loops;
+    private int nextLoop = 0;
+    private ServerLog logger = ServerLog.of(NioTransport.class);
+
+    public NioTransport(int ioThreads) throws IOException {
+        loops = new NioEventLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+        }
+    }
+
+    /**
+     * Blocks accepting connections until the server channel fails
+     *
+     * @param port     port to listen on
+     * @param onAccept receives the session for every accepted client
+     */
+    public void serve(int port, Consumer<ServerThread> onAccept) throws IOException {
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            logger.info("NIO transport listening on port %s with %s event loops", port, loops.length);
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                NioEventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                NioConnection connection = new NioConnection(channel, loop);
+                ServerThread session = new ServerThread(connection);
+                connection.setSession(session);
+                loop.register(connection);
+                onAccept.accept(session);
+            }
+        } finally {
+            for (NioEventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+}
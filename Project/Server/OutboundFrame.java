@@ -0,0 +1,74 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import Project.Common.FrameCompressor;
+import Project.Common.Payload;
+import Project.Common.PayloadCodec;
+import Project.Common.WireProtocol;
+
+/**
+ * A payload waiting in an OutboundQueue along with its encoded bytes.
+ * <p>
+ * A shared frame is handed to every member of a room by a broadcast: it's
+ * encoded at most once per codec (length prefix included) and every
+ * connection using that codec copies the same read-only bytes. Shared frames
+ * and their payloads must never be modified once created.
+ * </p>
+ */
+public class OutboundFrame {
+    private static final int CODEC_SLOTS = 4;// <-- 2 codecs, each plain or compressed
+    private final Payload payload;
+    private final boolean isShared;
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<byte[]>(CODEC_SLOTS);
+
+    private OutboundFrame(Payload payload, boolean isShared) {
+        this.payload = payload;
+        this.isShared = isShared;
+    }
+
+    /**
+     * A frame for a single recipient
+     */
+    public static OutboundFrame of(Payload payload) {
+        return new OutboundFrame(payload, false);
+    }
+
+    /**
+     * A frame that will be queued for many recipients
+     */
+    public static OutboundFrame shared(Payload payload) {
+        return new OutboundFrame(payload, true);
+    }
+
+    public Payload getPayload() {
+        return payload;
+    }
+
+    public boolean isShared() {
+        return isShared;
+    }
+
+    /**
+     * Returns the length-prefixed frame for the given codec, encoding it the first
+     * time any connection asks. The returned array must not be modified.
+     * 
+     * @param compressor the connection's compressor or null if it didn't
+     *                   negotiate compression
+     */
+    public byte[] encodedFor(PayloadCodec codec, FrameCompressor compressor) throws IOException {
+        // compressed frames are deterministic so they can be cached and shared too
+        int slot = codec.getId() * 2 + (compressor == null ? 0 : 1);
+        byte[] bytes = encoded.get(slot);
+        if (bytes == null) {
+            byte[] body = codec.encode(payload);
+            bytes = compressor == null ? WireProtocol.frame(body) : compressor.frame(body);
+            // if two connections race here they produce identical bytes, keep the first
+            if (!encoded.compareAndSet(slot, null, bytes)) {
+                bytes = encoded.get(slot);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,288 @@
+package Project.Server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Project.Common.Payload;
+import Project.Common.PayloadType;
+
+/**
+ * Bounded per-client queue between the threads producing payloads (rooms,
+ * timers) and the single writer that owns the socket.
+ * <br>
+ * offer() never blocks, so a client with a full TCP window only ever backs up
+ * its own queue.
+ */
+public class OutboundQueue {
+    public enum Result {
+        QUEUED, COALESCED, DROPPED,
+        /**
+         * Queue is past capacity (or the policy is DISCONNECT); caller should
+         * disconnect the client
+         */
+        OVERFLOW,
+        /**
+         * Queue was closed, the client is gone
+         */
+        CLOSED
+    }
+
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<OutboundFrame>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int highWaterMark;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private volatile boolean isClosed = false;
+    private boolean isAboveHighWater = false;
+    private volatile int depth = 0;
+    private volatile int corks = 0;
+    private volatile long dropped = 0;
+    private volatile long coalesced = 0;
+    private String owner = "";
+    private ServerLog logger = ServerLog.of(OutboundQueue.class);
+
+    public OutboundQueue(int highWaterMark, int capacity, SlowConsumerPolicy policy) {
+        this.highWaterMark = highWaterMark;
+        this.capacity = Math.max(capacity, highWaterMark);
+        this.policy = policy;
+    }
+
+    /**
+     * Used to label log output
+     */
+    protected void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Result offer(OutboundFrame frame) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return Result.CLOSED;
+            }
+            if (queue.size() >= highWaterMark) {
+                if (!isAboveHighWater) {
+                    isAboveHighWater = true;
+                    logger.warning("Outbound[%s]: passed high-water mark (%s), applying %s", owner, highWaterMark,
+                            policy);
+                }
+                switch (policy) {
+                    case DISCONNECT:
+                        return Result.OVERFLOW;
+                    case DROP:
+                        // a reply is never dropped, the client is waiting on it
+                        if (frame.getPayload().getPayloadType() == PayloadType.MESSAGE
+                                && frame.getPayload().getRequestId() == 0) {
+                            dropped++;
+                            return Result.DROPPED;
+                        }
+                        break;
+                    case COALESCE:
+                        if (coalesce(frame)) {
+                            coalesced++;
+                            return Result.COALESCED;
+                        }
+                        break;
+                }
+                if (queue.size() >= capacity) {
+                    return Result.OVERFLOW;
+                }
+            }
+            queue.addLast(frame);
+            depth = queue.size();
+            if (depth == 1) {
+                notEmpty.signal();
+            }
+            return Result.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tries to fold the payload into what's already queued without growing the
+     * queue. Queued frames may be shared with other clients so they're replaced,
+     * never modified. Only looks back as far as the last room change so state
+     * isn't applied to the wrong room. Replies (a non-zero requestId) are left
+     * alone on either side so the id still reaches the client.
+     */
+    private boolean coalesce(OutboundFrame frame) {
+        Payload payload = frame.getPayload();
+        PayloadType type = payload.getPayloadType();
+        if (payload.getRequestId() != 0) {
+            return false;
+        }
+        if (type == PayloadType.MESSAGE) {
+            OutboundFrame last = queue.peekLast();
+            Payload lastPayload = last == null ? null : last.getPayload();
+            if (lastPayload != null && lastPayload.getPayloadType() == PayloadType.MESSAGE
+                    && lastPayload.getClass() == Payload.class && lastPayload.getRequestId() == 0
+                    && lastPayload.getClientId() == payload.getClientId()) {
+                Payload merged = new Payload();
+                merged.setPayloadType(PayloadType.MESSAGE);
+                merged.setClientId(payload.getClientId());
+                merged.setMessage(lastPayload.getMessage() + "\n" + payload.getMessage());
+                queue.pollLast();
+                queue.addLast(OutboundFrame.of(merged));
+                return true;
+            }
+            return false;
+        }
+        if (type != PayloadType.PHASE && type != PayloadType.READY) {
+            return false;
+        }
+        Iterator<OutboundFrame> iter = queue.descendingIterator();
+        while (iter.hasNext()) {
+            Payload queued = iter.next().getPayload();
+            if (queued.getPayloadType() == PayloadType.JOIN_ROOM) {
+                return false;
+            }
+            if (queued.getPayloadType() == type && queued.getRequestId() == 0
+                    && (type == PayloadType.PHASE || queued.getClientId() == payload.getClientId())) {
+                // the new value supersedes the queued one, send it in order instead
+                iter.remove();
+                queue.addLast(frame);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Non-blocking, used by the NIO event loop
+     */
+    public OutboundFrame poll() {
+        lock.lock();
+        try {
+            OutboundFrame p = queue.pollFirst();
+            onRemoved();
+            return p;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a payload is available, used by the blocking writer
+     *
+     * @return the next payload or null once the queue is closed
+     */
+    public OutboundFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (isClosed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            OutboundFrame p = queue.pollFirst();
+            onRemoved();
+            return p;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Used by the blocking writer once it has unflushed data. Returns the next
+     * payload if there is one; while the queue is corked it waits up to
+     * timeoutNanos for more.
+     *
+     * @return the next payload or null when it's time to flush
+     */
+    public OutboundFrame poll(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && corks > 0 && !isClosed && timeoutNanos > 0) {
+                timeoutNanos = notEmpty.awaitNanos(timeoutNanos);
+            }
+            OutboundFrame p = queue.pollFirst();
+            onRemoved();
+            return p;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds back flushing until the matching uncork(); calls nest
+     */
+    public void cork() {
+        lock.lock();
+        try {
+            corks++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if this released the last cork and the queue should be flushed
+     */
+    public boolean uncork() {
+        lock.lock();
+        try {
+            if (corks > 0) {
+                corks--;
+            }
+            if (corks == 0) {
+                notEmpty.signalAll();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isCorked() {
+        return corks > 0;
+    }
+
+    private void onRemoved() {
+        depth = queue.size();
+        if (isAboveHighWater && depth < highWaterMark / 2) {
+            isAboveHighWater = false;
+            logger.info("Outbound[%s]: drained below high-water mark", owner);
+        }
+    }
+
+    public boolean isEmpty() {
+        return depth == 0;
+    }
+
+    /**
+     * Discards anything pending and wakes the writer so it can exit
+     */
+    public void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            queue.clear();
+            depth = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+}
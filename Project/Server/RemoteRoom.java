@@ -0,0 +1,67 @@
+package Project.Server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in, on the node a client is connected to, for a room owned by another
+ * node.
+ * <p>
+ * It's the client's current room while it's in the remote room, so the
+ * session's MESSAGE/READY/leave handling works unchanged: each is forwarded to
+ * the owner, which runs the real room. It isn't in the RoomRegistry and keeps
+ * no state besides which local sessions are in it; the Cluster drops it once
+ * the last of them leaves.
+ * </p>
+ */
+public class RemoteRoom extends GameRoom {
+    private final Cluster cluster;
+    private final int ownerId;
+    private final Set<ServerThread> members = ConcurrentHashMap.newKeySet();
+
+    public RemoteRoom(String name, Cluster cluster, int ownerId) {
+        // nothing is ever posted to its mailbox; not using the shared workers also
+        // keeps it out of the RoomPool
+        super(name, Runnable::run);
+        this.cluster = cluster;
+        this.ownerId = ownerId;
+    }
+
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Called once the owner confirmed the join
+     */
+    void onJoined(ServerThread client) {
+        members.add(client);
+    }
+
+    /**
+     * Local sessions currently in the room
+     */
+    Set<ServerThread> getMembers() {
+        return members;
+    }
+
+    @Override
+    protected void removeClient(ServerThread client) {
+        if (members.remove(client)) {
+            cluster.leave(ownerId, client, getName());
+            cluster.onLeft(this);
+        }
+    }
+
+    @Override
+    protected void sendMessage(ServerThread sender, String message) {
+        if (sender != null) {
+            cluster.toRoom(ownerId, sender, ServerThread.messagePayload(sender.getClientId(), message));
+        }
+    }
+
+    @Override
+    public void setReady(ServerThread client) {
+        cluster.toRoom(ownerId, client, ServerThread.readyPayload(client.getClientId(), true));
+    }
+}
@@ -0,0 +1,73 @@
+package Project.Server;
+
+import Project.Common.Constants;
+import Project.Common.WireProtocol;
+
+/**
+ * Stands in, on the node that owns a room, for a client connected to another
+ * node.
+ * <p>
+ * Rooms treat it like any other member; whatever they send it is forwarded
+ * over the cluster link to the client's node, which hands it to the real
+ * session. It has no socket and no outbound queue of its own.
+ * </p>
+ */
+public class RemoteSession extends ServerThread {
+    private final Cluster cluster;
+    private final int nodeId;
+    private volatile boolean isDetached = false;
+
+    /**
+     * @param nodeId the node the client is connected to
+     */
+    public RemoteSession(Cluster cluster, int nodeId, long clientId, String clientName) {
+        // the client already got its id from its own node. Everything is sent in
+        // full; the client's own session falls back for older clients when it hands
+        // the payload on
+        super(clientId, clientName, WireProtocol.VERSION);
+        this.cluster = cluster;
+        this.nodeId = nodeId;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    protected boolean send(OutboundFrame frame) {
+        Cluster c = cluster;
+        if (c == null || isDetached) {
+            return false;
+        }
+        Room room = getCurrentRoom();
+        return c.toClient(nodeId, getClientId(), room == null ? "" : room.getName(), frame);
+    }
+
+    @Override
+    protected boolean isClosed() {
+        return isDetached;
+    }
+
+    /**
+     * The client's own node moves it to its lobby (and tells us it left)
+     */
+    @Override
+    protected void returnToLobby() {
+        sendJoinRoom(Constants.LOBBY);
+    }
+
+    /**
+     * Nothing to close; the client's own node owns the connection
+     */
+    @Override
+    public void disconnect() {
+        detach();
+    }
+
+    /**
+     * Stops forwarding, e.g. once the link to the client's node is lost
+     */
+    void detach() {
+        isDetached = true;
+    }
+}
@@ -1,133 +1,309 @@
 package Project.Server;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import Project.Common.Constants;
+import Project.Common.Payload;
+import Project.Common.Phase;
+import Project.Common.RoomSort;
 
+/**
+ * A room's state is only touched by events running on its Mailbox, one at a
+ * time on the shared room workers, so none of it needs a lock.
+ * <p>
+ * The protected entry points (addClient, removeClient, sendMessage, ...) can
+ * be called from any thread and only post an event; the private handlers and
+ * anything marked "mailbox only" run on the mailbox. Subclasses add their own
+ * events through execute()/offer().
+ * </p>
+ */
 public class Room implements AutoCloseable {
     // protected static Server server;// used to refer to accessible server
     // functions
-    private String name;
-    private List<ServerThread> clients = new ArrayList<ServerThread>();
-
-    private boolean isRunning = false;
-    // Commands
-    private final static String COMMAND_TRIGGER = "/";
-    // private final static String CREATE_ROOM = "createroom";
-    // private final static String JOIN_ROOM = "joinroom";
-    // private final static String DISCONNECT = "disconnect";
-    // private final static String LOGOUT = "logout";
-    // private final static String LOGOFF = "logoff";
-    private Logger logger = Logger.getLogger(Room.class.getName());
+    private volatile String name;// <-- only changes when a pooled room is reopened
+    private final List<ServerThread> members = new ArrayList<ServerThread>();
+    private List<ServerThread> clients = members;// <-- null once closed
+
+    private boolean isRunning = false;// <-- mailbox only, like the rest of the state
+    private volatile int memberCount = 0;// <-- written on the mailbox, read by the RoomDirectory
+    private final Mailbox mailbox;
+    private final ServerSnapshot.RoomState state;// <-- nothing about a plain room changes
+    private final MessageHistory history = new MessageHistory(ServerConfig.ROOM_HISTORY_SIZE,
+            ServerConfig.ROOM_HISTORY_BYTES);// <-- mailbox only
+    // set while empty and waiting out ServerConfig.ROOM_LINGER_MS; mailbox only
+    private TimingWheel.Timeout linger = null;
+    // set by the host through RoomCommands; mailbox only
+    private final Set<Long> muted = new HashSet<Long>();
+    private String topic = null;
+    private ServerLog logger = ServerLog.of(Room.class);
 
     public Room(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param executor runs this room's events instead of the shared room workers
+     *                 (Runnable::run handles them on the posting thread); null
+     *                 for the shared pool
+     */
+    public Room(String name, Executor executor) {
         this.name = name;
+        mailbox = executor == null ? new Mailbox(name)
+                : new Mailbox(name, executor, ServerConfig.ROOM_MAILBOX_CAPACITY);
+        state = new ServerSnapshot.RoomState(name, false, null, List.of());
         isRunning = true;
     }
 
     private void info(String message) {
-        logger.info(String.format("Room[%s]: %s", name, message));
+        logger.info("Room[%s]: %s", name, message);
     }
 
     public String getName() {
         return name;
     }
 
-    protected synchronized void addClient(ServerThread client) {
-        if (!isRunning) {
+    /**
+     * Safe from any thread; may be a moment behind the mailbox
+     */
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    /**
+     * Safe from any thread; null for rooms without game phases
+     */
+    public Phase getPhase() {
+        return null;
+    }
+
+    /**
+     * What a ServerSnapshot keeps of this room. Safe from any thread; returns the
+     * same instance until something worth keeping changes.
+     */
+    public ServerSnapshot.RoomState getState() {
+        return state;
+    }
+
+    /**
+     * Runs an event on this room's mailbox; never refused
+     */
+    protected void execute(Runnable event) {
+        mailbox.post(event);
+    }
+
+    /**
+     * Runs a client's event on this room's mailbox unless it's backed up, in which
+     * case the client is told to try again
+     *
+     * @return false if it was refused
+     */
+    protected boolean offer(ServerThread client, Runnable event) {
+        if (mailbox.offer(event)) {
+            return true;
+        }
+        client.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                String.format("Room %s is busy, please try again", name));
+        return false;
+    }
+
+    /**
+     * Number of events waiting on this room's mailbox
+     */
+    public int getBacklog() {
+        return mailbox.getDepth();
+    }
+
+    /**
+     * Moves a client in without a request to answer (lobby on connect)
+     */
+    protected void addClient(ServerThread client) {
+        addClient(client, 0);
+    }
+
+    /**
+     * Moves a client into this room; once it's in, it's removed from the room
+     * it was in before
+     *
+     * @param requestId answered with the JOIN_ROOM once the join happens (0 for
+     *                  none)
+     */
+    protected void addClient(ServerThread client, long requestId) {
+        addClient(client, requestId, name);
+    }
+
+    /**
+     * @param roomName the name the room was looked up by; if the room has been
+     *                 closed (and maybe reopened under another name from the
+     *                 RoomPool) since, the join looks it up again
+     */
+    protected void addClient(ServerThread client, long requestId, String roomName) {
+        execute(() -> client.replying(requestId, () -> handleJoin(client, roomName)));
+    }
+
+    protected void removeClient(ServerThread client) {
+        execute(() -> handleLeave(client));
+    }
+
+    private void handleJoin(ServerThread client, String roomName) {
+        if (!isRunning || !name.equalsIgnoreCase(roomName)) {
+            // closed between the lookup and now; it's no longer registered (under that
+            // name) so this either finds a room recreated under the same name or
+            // reports not found
+            Server.INSTANCE.joinRoom(roomName, client);
+            return;
+        }
+        if (client.isClosed()) {
             return;
         }
-        client.setCurrentRoom(this);
+        if (linger != null) {
+            // came back in time, keep the room
+            linger.cancel();
+            linger = null;
+            Server.INSTANCE.getRoomPool().onRevive();
+        }
+        Room oldRoom = client.swapCurrentRoom(this);
+        // the joiner gets several payloads here, let them go out in one write
+        client.cork();
+        try {
+            onJoin(client);
+        } finally {
+            client.uncork();
+        }
+        // left only after joining so the client is never without a room
+        if (oldRoom != null && oldRoom != this) {
+            logger.info("Room[%s]: %s left for this room from %s", name, client.getClientName(), oldRoom.getName());
+            oldRoom.removeClient(client);
+        }
+    }
+
+    /**
+     * Mailbox only; the client is corked
+     */
+    protected void onJoin(ServerThread client) {
         client.sendJoinRoom(getName());// clear first
         if (clients.indexOf(client) > -1) {
             info("Attempting to add a client that already exists");
         } else {
             clients.add(client);
+            memberCount = clients.size();
+            Server.INSTANCE.record(ChatLog.Kind.JOIN, name, client, null);
             // connect status second
             sendConnectionStatus(client, true);
             syncClientList(client);
+            // what was said before they got here, in one payload
+            if (history.size() > 0) {
+                client.sendHistory(history.toPayload());
+            }
+            if (topic != null) {
+                client.sendMessage(Constants.DEFAULT_CLIENT_ID, "Topic: " + topic);
+            }
         }
-
-
     }
 
-    protected synchronized void removeClient(ServerThread client) {
+    private void handleLeave(ServerThread client) {
         if (!isRunning) {
             return;
         }
-        clients.remove(client);
+        if (!clients.remove(client)) {
+            return;// <-- e.g. already dropped after a failed send
+        }
+        memberCount = clients.size();
+        muted.remove(client.getClientId());
+        Server.INSTANCE.record(ChatLog.Kind.LEAVE, name, client, null);
         // we don't need to broadcast it to the server
         // only to our own Room
         if (clients.size() > 0) {
             // sendMessage(client, "left the room");
             sendConnectionStatus(client, false);
         }
+        onLeave(client);
         checkClients();
     }
 
+    /**
+     * Mailbox only; the client was a member and has just been removed
+     */
+    protected void onLeave(ServerThread client) {
+    }
+
+    /**
+     * Closes the room if nobody is in it, e.g. one restored from a snapshot that
+     * nobody came back to
+     */
+    protected void closeIfEmpty() {
+        execute(() -> {
+            if (isRunning && !name.equalsIgnoreCase(Constants.LOBBY) && clients.size() == 0) {
+                close();// <-- already waited long enough, no linger on top
+            }
+        });
+    }
+
     /***
      * Checks the number of clients.
-     * If zero, begins the cleanup process to dispose of the room
+     * If zero, begins the cleanup process to dispose of the room; with a linger
+     * period it stays open that long first in case someone comes back
      */
     private void checkClients() {
         // Cleanup if room is empty and not lobby
-        if (!name.equalsIgnoreCase(Constants.LOBBY) && clients.size() == 0) {
+        if (name.equalsIgnoreCase(Constants.LOBBY) || clients.size() > 0) {
+            return;
+        }
+        if (ServerConfig.ROOM_LINGER_MS <= 0) {
             close();
+        } else if (linger == null) {
+            TimingWheel.Timeout[] scheduled = new TimingWheel.Timeout[1];
+            scheduled[0] = Server.INSTANCE.schedule(() -> execute(() -> endLinger(scheduled[0])),
+                    ServerConfig.ROOM_LINGER_MS);
+            linger = scheduled[0];
+            Server.INSTANCE.getRoomPool().onLinger();
+            logger.info("Room[%s]: Empty, closing in %sms unless someone joins", name, ServerConfig.ROOM_LINGER_MS);
         }
     }
 
-    /***
-     * Helper function to process messages to trigger different functionality.
+    /**
+     * Mailbox only; closes the room unless someone joined since that linger
+     * started
+     */
+    private void endLinger(TimingWheel.Timeout expired) {
+        if (linger != expired) {
+            return;// <-- a join cancelled it (the wheel may still have fired it)
+        }
+        linger = null;
+        if (isRunning && clients.size() == 0) {
+            Server.INSTANCE.getRoomPool().onExpire();
+            close();
+        }
+    }
+
+    /**
+     * Runs a dispatch with every member corked so each client gets all of the
+     * dispatch's payloads in a single flush. Mailbox only.
      * 
-     * @param message The original message being sent
-     * @param client  The sender of the message (since they'll be the ones
-     *                triggering the actions)
+     * @param dispatch work that sends to several members
      */
-    private boolean processCommands(String message, ServerThread client) {
-        boolean wasCommand = false;
+    protected void batch(Runnable dispatch) {
+        if (clients == null) {
+            return;
+        }
+        List<ServerThread> members = new ArrayList<ServerThread>(clients);
+        members.forEach(ServerThread::cork);
         try {
-            if (message.startsWith(COMMAND_TRIGGER)) {
-                String[] comm = message.split(COMMAND_TRIGGER);
-                String part1 = comm[1];
-                String[] comm2 = part1.split(" ");
-                String command = comm2[0];
-                // String roomName;
-                wasCommand = true;
-                switch (command) {
-                    /*
-                     * case CREATE_ROOM:
-                     * roomName = comm2[1];
-                     * Room.createRoom(roomName, client);
-                     * break;
-                     * case JOIN_ROOM:
-                     * roomName = comm2[1];
-                     * Room.joinRoom(roomName, client);
-                     * break;
-                     */
-                    /*
-                     * case DISCONNECT:
-                     * case LOGOUT:
-                     * case LOGOFF:
-                     * Room.disconnectClient(client, this);
-                     * break;
-                     */
-                    default:
-                        wasCommand = false;
-                        break;
-                }
-
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+            dispatch.run();
+        } finally {
+            members.forEach(ServerThread::uncork);
         }
-        return wasCommand;
     }
 
     // Command helper methods
-    private synchronized void syncClientList(ServerThread joiner) {
+    private void syncClientList(ServerThread joiner) {
+        if (clients == null) {
+            return;// <-- a failed send closed the room mid-join
+        }
         Iterator<ServerThread> iter = clients.iterator();
         while (iter.hasNext()) {
             ServerThread st = iter.next();
@@ -137,6 +313,9 @@ public class Room implements AutoCloseable {
         }
     }
     protected static void createRoom(String roomName, ServerThread client) {
+        if (Server.INSTANCE.forwardCreate(roomName, client)) {
+            return;// <-- another node owns the name, it creates and answers
+        }
         if (Server.INSTANCE.createNewRoom(roomName)) {
             // server.joinRoom(roomName, client);
             Room.joinRoom(roomName, client);
@@ -151,70 +330,208 @@ public class Room implements AutoCloseable {
         }
     }
 
-    protected static List<String> listRooms(String searchString, int limit) {
-        return Server.INSTANCE.listRooms(searchString, limit);
+    protected static RoomDirectory.Page listRooms(String searchString, RoomSort sort, String cursor, int limit) {
+        return Server.INSTANCE.listRooms(searchString, sort, cursor, limit);
     }
 
     protected static void disconnectClient(ServerThread client, Room room) {
         client.setCurrentRoom(null);
         client.disconnect();
+        // a join still in flight sees the closed session and skips it
         room.removeClient(client);
     }
     // end command helper methods
 
+    // RoomCommands helpers (mailbox only)
+
+    /**
+     * The member who has been here the longest (members are kept in join order),
+     * null if it's empty
+     */
+    protected ServerThread getHost() {
+        return clients == null || clients.isEmpty() ? null : clients.get(0);
+    }
+
+    /**
+     * @param nameOrId a name (case-insensitive) or #id
+     * @return null if no member matches
+     */
+    protected ServerThread findMember(String nameOrId) {
+        if (clients == null) {
+            return null;
+        }
+        long id = -1;
+        if (nameOrId.startsWith("#")) {
+            try {
+                id = Long.parseLong(nameOrId.substring(1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        for (ServerThread client : clients) {
+            if (id > -1 ? client.getClientId() == id : nameOrId.equalsIgnoreCase(client.getClientName())) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Muted members' messages aren't sent; it lasts until they leave the room
+     *
+     * @return false if that was already the case
+     */
+    protected boolean setMuted(ServerThread client, boolean isMuted) {
+        return isMuted ? muted.add(client.getClientId()) : muted.remove(client.getClientId());
+    }
+
+    /**
+     * Shown to everyone who joins; null for none
+     */
+    protected String getTopic() {
+        return topic;
+    }
+
+    protected void setTopic(String topic) {
+        this.topic = topic;
+    }
+
     /***
      * Takes a sender and a message and broadcasts the message to all clients in
      * this room. Client is mostly passed for command purposes but we can also use
      * it to extract other client info.
+     * <br>
+     * Messages from clients are refused while the room is backed up; the room's
+     * own (sender null) never are.
      * 
      * @param sender  The client sending the message
      * @param message The message to broadcast inside the room
      */
-    protected synchronized void sendMessage(ServerThread sender, String message) {
+    protected void sendMessage(ServerThread sender, String message) {
+        if (sender == null) {
+            execute(() -> handleMessage(null, message));
+        } else {
+            offer(sender, () -> handleMessage(sender, message));
+        }
+    }
+
+    /**
+     * Mailbox only; a room notice that goes out right away rather than being
+     * posted, so it joins whatever batch() the caller is in
+     */
+    protected void announce(String message) {
+        handleMessage(null, message);
+    }
+
+    private void handleMessage(ServerThread sender, String message) {
         if (!isRunning) {
             return;
         }
-        info("Sending message to " + clients.size() + " clients");
-        if (sender != null && processCommands(message, sender)) {
+        logger.info("Room[%s]: Sending message to %s clients", name, clients.size());
+        if (sender != null && RoomCommands.dispatch(this, sender, message)) {
             // it was a command, don't broadcast
             return;
         }
+        if (sender != null && muted.contains(sender.getClientId())) {
+            sender.sendMessage(Constants.DEFAULT_CLIENT_ID, "You're muted in this room");
+            return;
+        }
 
         /// String from = (sender == null ? "Room" : sender.getClientName());
         long from = (sender == null) ? Constants.DEFAULT_CLIENT_ID : sender.getClientId();
-        Iterator<ServerThread> iter = clients.iterator();
-        while (iter.hasNext()) {
-            ServerThread client = iter.next();
-            boolean messageSent = client.sendMessage(from, message);
-            if (!messageSent) {
-                handleDisconnect(iter, client);
-            }
+        // only what members said; room notices (countdowns etc.) are stale by the time anyone catches up
+        if (sender != null) {
+            history.add(from, sender.getClientName(), message, System.currentTimeMillis());
+            Server.INSTANCE.record(ChatLog.Kind.MESSAGE, name, sender, message);
         }
+        broadcast(ServerThread.messagePayload(from, message));
     }
 
-    protected synchronized void sendConnectionStatus(ServerThread sender, boolean isConnected) {
-        Iterator<ServerThread> iter = clients.iterator();
-        while (iter.hasNext()) {
-            ServerThread client = iter.next();
-            boolean messageSent = client.sendConnectionStatus(sender.getClientId(), sender.getClientName(),
-                    isConnected);
-            if (!messageSent) {
-                handleDisconnect(iter, client);
+    /**
+     * Mailbox only
+     */
+    protected void sendConnectionStatus(ServerThread sender, boolean isConnected) {
+        broadcast(ServerThread.connectionStatusPayload(sender.getClientId(), sender.getClientName(),
+                isConnected));
+    }
+
+    /**
+     * Sends the same payload to every member. It's wrapped in one shared frame so
+     * it's encoded at most once per codec no matter how many members there are;
+     * the payload must not be modified afterwards. Mailbox only.
+     * 
+     * @param payload payload without any per-recipient fields
+     */
+    protected void broadcast(Payload payload) {
+        if (clients == null) {
+            return;
+        }
+        OutboundFrame frame = OutboundFrame.shared(payload);
+        List<ServerThread> failed = null;
+        for (ServerThread client : clients) {
+            if (!client.send(frame)) {
+                if (failed == null) {
+                    failed = new ArrayList<ServerThread>();
+                }
+                failed.add(client);
             }
         }
+        // handled after the loop since it sends (and may remove) as well
+        if (failed != null) {
+            failed.forEach(this::handleDisconnect);
+        }
     }
 
-    private void handleDisconnect(Iterator<ServerThread> iter, ServerThread client) {
-        iter.remove();
-        info("Removed client " + client.getClientName());
+    private void handleDisconnect(ServerThread client) {
+        if (clients == null || !clients.remove(client)) {
+            return;
+        }
+        memberCount = clients.size();
+        muted.remove(client.getClientId());
+        Server.INSTANCE.record(ChatLog.Kind.LEAVE, name, client, null);
+        logger.info("Room[%s]: Removed client %s", name, client.getClientName());
+        onLeave(client);
         checkClients();
         sendMessage(null, client.getClientName() + " disconnected");
     }
 
+    /**
+     * Mailbox only; removeRoom doesn't lock so calling out from here is safe
+     */
     public void close() {
         Server.INSTANCE.removeRoom(this);
         // server = null;
         isRunning = false;
+        if (linger != null) {
+            linger.cancel();
+            linger = null;
+        }
         clients = null;
+        members.clear();
+        memberCount = 0;
+    }
+
+    /**
+     * Brings a closed room back under a new name for the RoomPool. The name
+     * changes right away so the room can be registered; the rest is reset on
+     * the mailbox, ahead of anything posted once it's registered.
+     */
+    protected void reopen(String newName) {
+        name = newName;
+        mailbox.setName(newName);
+        execute(() -> {
+            history.clear();
+            muted.clear();
+            topic = null;
+            clients = members;
+            isRunning = true;
+            onReopen();
+        });
+    }
+
+    /**
+     * Mailbox only; resets whatever a subclass keeps between uses
+     */
+    protected void onReopen() {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package Project.Server;
+
+import Project.Common.CommandRegistry;
+import Project.Common.Constants;
+
+/**
+ * Slash commands members can send as chat, handled by the room instead of
+ * being broadcast.
+ * <p>
+ * Handlers run on the room's mailbox, so they can use its mailbox only
+ * helpers directly. Add a command with register() (e.g. at startup); nothing
+ * else needs to change. Unknown commands are sent as ordinary chat like
+ * before.
+ * </p>
+ * Moderation commands (kick, mute, unmute, topic) are for the room's host, the
+ * member who has been in it the longest, and don't apply to the lobby.
+ */
+public class RoomCommands {
+    /**
+     * The room a command was sent in and who sent it
+     */
+    public static class Call {
+        private final Room room;
+        private final ServerThread sender;
+
+        Call(Room room, ServerThread sender) {
+            this.room = room;
+            this.sender = sender;
+        }
+
+        public Room getRoom() {
+            return room;
+        }
+
+        public ServerThread getSender() {
+            return sender;
+        }
+
+        /**
+         * Tells only the sender
+         */
+        public void reply(String message) {
+            sender.sendMessage(Constants.DEFAULT_CLIENT_ID, message);
+        }
+    }
+
+    private static final CommandRegistry<Call> COMMANDS = new CommandRegistry<Call>()
+            .register(RoomCommands::help, "help", "commands")
+            .register(RoomCommands::kick, "kick")
+            .register((call, args) -> mute(call, args, true), "mute")
+            .register((call, args) -> mute(call, args, false), "unmute")
+            .register(RoomCommands::topic, "topic");
+
+    private RoomCommands() {
+    }
+
+    /**
+     * Adds or replaces a command; the handler runs on the room's mailbox
+     */
+    public static void register(CommandRegistry.Handler<Call> handler, String... names) {
+        COMMANDS.register(handler, names);
+    }
+
+    /**
+     * Mailbox only
+     *
+     * @return false if the message isn't a known command and should be sent as
+     *         chat
+     */
+    static boolean dispatch(Room room, ServerThread sender, String message) {
+        // no Call for ordinary text
+        if (!COMMANDS.isKnown(message)) {
+            return false;
+        }
+        return COMMANDS.dispatch(new Call(room, sender), message);
+    }
+
+    private static void help(Call call, String args) {
+        StringBuilder sb = new StringBuilder("Commands:");
+        COMMANDS.names().forEach(n -> sb.append(' ').append(CommandRegistry.TRIGGER).append(n));
+        call.reply(sb.toString());
+    }
+
+    /**
+     * @return false (after telling the sender why) if they can't moderate here
+     */
+    private static boolean checkHost(Call call) {
+        Room room = call.getRoom();
+        if (room.getName().equalsIgnoreCase(Constants.LOBBY)) {
+            call.reply("There's no moderating the lobby");
+            return false;
+        }
+        if (room.getHost() != call.getSender()) {
+            call.reply("Only the room's host can do that");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the member, or null after telling the sender
+     */
+    private static ServerThread target(Call call, String args, String usage) {
+        if (args.isEmpty()) {
+            call.reply("Usage: " + usage);
+            return null;
+        }
+        ServerThread target = call.getRoom().findMember(args);
+        if (target == null) {
+            call.reply(String.format("%s isn't in this room", args));
+        }
+        return target;
+    }
+
+    private static void kick(Call call, String args) {
+        if (!checkHost(call)) {
+            return;
+        }
+        ServerThread target = target(call, args, "/kick name (or /kick #id)");
+        if (target == null) {
+            return;
+        }
+        if (target == call.getSender()) {
+            call.reply("You can't kick yourself");
+            return;
+        }
+        target.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                String.format("You were removed from %s", call.getRoom().getName()));
+        // the lobby takes them out of this room once they're in
+        target.returnToLobby();
+        call.getRoom().sendMessage(null, target.getClientName() + " was removed by the host");
+    }
+
+    private static void mute(Call call, String args, boolean isMuted) {
+        if (!checkHost(call)) {
+            return;
+        }
+        ServerThread target = target(call, args, isMuted ? "/mute name (or /mute #id)" : "/unmute name");
+        if (target == null) {
+            return;
+        }
+        if (call.getRoom().setMuted(target, isMuted)) {
+            target.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                    isMuted ? "The host muted you" : "The host unmuted you");
+        }
+        call.reply(String.format("%s is %s", target.getClientName(), isMuted ? "muted" : "no longer muted"));
+    }
+
+    private static void topic(Call call, String args) {
+        Room room = call.getRoom();
+        if (args.isEmpty()) {
+            call.reply(room.getTopic() == null ? "No topic set" : "Topic: " + room.getTopic());
+            return;
+        }
+        if (!checkHost(call)) {
+            return;
+        }
+        room.setTopic(args);
+        room.sendMessage(null, "Topic: " + args);
+    }
+}
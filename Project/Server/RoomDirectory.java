@@ -0,0 +1,314 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import Project.Common.Phase;
+import Project.Common.RoomSort;
+
+/**
+ * Serves LIST_ROOMS from an immutable snapshot of every room's name, member
+ * count and phase, rebuilt every refreshMs on its own thread.
+ * <p>
+ * The snapshot keeps one array per RoomSort, so a page is a binary search for
+ * the cursor plus a short walk. Searches the RoomRegistry's trigram index can
+ * narrow down are looked up and sorted instead of walked. Listing never touches
+ * a room's mailbox; results may be up to refreshMs behind.
+ * </p>
+ * <p>
+ * Cursors are keyset based (the sort key and name of the last entry), so they
+ * stay valid across rebuilds: rooms created or removed in between simply show
+ * up or drop out.
+ * </p>
+ * In a cluster, rooms owned by other nodes are merged in from what each node
+ * last reported (setRemoteRooms).
+ */
+public class RoomDirectory {
+    /**
+     * Searches matching more rooms than this are walked in sort order instead of
+     * collected and sorted
+     */
+    private static final int MAX_SORTED_MATCHES = 4096;
+    private static final int NO_PHASE_RANK = Phase.values().length;// <-- sorts after every phase
+
+    public static class Entry {
+        private final String name;
+        private final String key;
+        private final int members;
+        private final Phase phase;
+
+        /**
+         * A room owned by another node, as it reported it
+         */
+        public Entry(String name, int members, Phase phase) {
+            this(name, RoomRegistry.normalize(name), members, phase);
+        }
+
+        private Entry(String name, String key, int members, Phase phase) {
+            this.name = name;
+            this.key = key;
+            this.members = members;
+            this.phase = phase;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMembers() {
+            return members;
+        }
+
+        /**
+         * null for rooms without game phases
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        private int phaseRank() {
+            return phase == null ? NO_PHASE_RANK : phase.ordinal();
+        }
+
+        private boolean sameAs(Entry other) {
+            return other != null && members == other.members && phase == other.phase && name.equals(other.name);
+        }
+    }
+
+    public static class Page {
+        private final List<Entry> entries;
+        private final String cursor;
+
+        private Page(List<Entry> entries, String cursor) {
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Where the next page starts, null if this is the last one
+         */
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    private static final Comparator<Entry> BY_NAME = Comparator.comparing((Entry e) -> e.key);
+    private static final Comparator<Entry> BY_OCCUPANCY = Comparator.comparingInt((Entry e) -> -e.members)
+            .thenComparing(BY_NAME);
+    private static final Comparator<Entry> BY_PHASE = Comparator.comparingInt(Entry::phaseRank)
+            .thenComparing(BY_NAME);
+
+    private static class Snapshot {
+        private final Map<String, Entry> byKey;
+        private final Entry[] byName;
+        private final Entry[] byOccupancy;
+        private final Entry[] byPhase;
+        private final boolean hasRemote;// <-- the registry's index only knows local rooms
+
+        private Snapshot(Map<String, Entry> byKey, boolean hasRemote) {
+            this.byKey = byKey;
+            this.hasRemote = hasRemote;
+            byName = byKey.values().toArray(new Entry[0]);
+            Arrays.sort(byName, BY_NAME);
+            byOccupancy = byName.clone();
+            Arrays.sort(byOccupancy, BY_OCCUPANCY);
+            byPhase = byName.clone();
+            Arrays.sort(byPhase, BY_PHASE);
+        }
+
+        private Entry[] sortedBy(RoomSort sort) {
+            switch (sort) {
+                case OCCUPANCY:
+                    return byOccupancy;
+                case PHASE:
+                    return byPhase;
+                default:
+                    return byName;
+            }
+        }
+    }
+
+    private final RoomRegistry registry;
+    private final long refreshMs;
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<String, Entry>(), false);
+    private final ConcurrentHashMap<Integer, List<Entry>> remote = new ConcurrentHashMap<Integer, List<Entry>>();
+    private final AtomicBoolean isRemoteChanged = new AtomicBoolean(false);
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("room-directory").daemon().factory());
+    private ServerLog logger = ServerLog.of(RoomDirectory.class);
+
+    public RoomDirectory(RoomRegistry registry, long refreshMs) {
+        this.registry = registry;
+        this.refreshMs = refreshMs;
+    }
+
+    /**
+     * Starts refreshing the snapshot in the background; until then only
+     * refresh() updates it
+     */
+    public void start() {
+        refresher.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the rooms another node owns; picked up by the next refresh
+     *
+     * @param rooms empty once the node is gone
+     */
+    public void setRemoteRooms(int nodeId, List<Entry> rooms) {
+        if (rooms.isEmpty()) {
+            remote.remove(nodeId);
+        } else {
+            remote.put(nodeId, rooms);
+        }
+        isRemoteChanged.set(true);
+    }
+
+    /**
+     * Rebuilds the snapshot if any room was added, removed or changed members or
+     * phase since the last one; only the refresher thread (and benchmark setup)
+     * calls this
+     */
+    public void refresh() {
+        try {
+            Snapshot current = snapshot;
+            Map<String, Entry> byKey = new HashMap<String, Entry>(Math.max(16, registry.size() * 4 / 3));
+            boolean changed = false;
+            for (Room room : registry.rooms()) {
+                String key = RoomRegistry.normalize(room.getName());
+                Entry e = new Entry(room.getName(), key, room.getMemberCount(), room.getPhase());
+                byKey.put(key, e);
+                changed |= !e.sameAs(current.byKey.get(key));
+            }
+            changed |= isRemoteChanged.getAndSet(false);
+            boolean hasRemote = false;
+            for (List<Entry> rooms : remote.values()) {
+                for (Entry e : rooms) {
+                    hasRemote |= byKey.putIfAbsent(e.key, e) == null;
+                }
+            }
+            // same size and every room the same means nothing was removed either
+            if (changed || byKey.size() != current.byKey.size()) {
+                snapshot = new Snapshot(byKey, hasRemote);
+            }
+        } catch (Exception e) {
+            // keep serving the old snapshot; a scheduled task that throws is never run again
+            logger.warning("Room directory refresh failed: %s", e);
+        }
+    }
+
+    /**
+     * @param query  case-insensitive substring, blank for every room
+     * @param sort   null for RoomSort.NAME
+     * @param cursor from the previous page, null for the first
+     * @throws IllegalArgumentException if the cursor wasn't one this sort hands
+     *                                  out
+     */
+    public Page page(String query, RoomSort sort, String cursor, int limit) {
+        if (sort == null) {
+            sort = RoomSort.NAME;
+        }
+        Comparator<Entry> order = comparator(sort);
+        Entry after = cursor == null || cursor.isEmpty() ? null : parseCursor(sort, cursor);
+        String q = RoomRegistry.normalize(query == null ? "" : query.trim());
+        Snapshot snap = snapshot;
+        List<Entry> results = new ArrayList<Entry>(Math.min(limit + 1, 128));
+        List<String> matches = q.isEmpty() || snap.hasRemote ? null : registry.matching(q, MAX_SORTED_MATCHES);
+        if (matches != null) {
+            // few enough to sort; rooms created since the snapshot aren't in it yet
+            List<Entry> found = new ArrayList<Entry>(matches.size());
+            for (String key : matches) {
+                Entry e = snap.byKey.get(key);
+                if (e != null && (after == null || order.compare(e, after) > 0)) {
+                    found.add(e);
+                }
+            }
+            found.sort(order);
+            results.addAll(found.subList(0, Math.min(found.size(), limit + 1)));
+        } else {
+            Entry[] sorted = snap.sortedBy(sort);
+            for (int i = after == null ? 0 : firstAfter(sorted, after, order); i < sorted.length
+                    && results.size() <= limit; i++) {
+                if (q.isEmpty() || sorted[i].key.contains(q)) {
+                    results.add(sorted[i]);
+                }
+            }
+        }
+        // one extra was fetched to tell whether there's another page
+        if (results.size() > limit) {
+            results = results.subList(0, limit);
+            return new Page(results, cursorFor(sort, results.get(limit - 1)));
+        }
+        return new Page(results, null);
+    }
+
+    private static Comparator<Entry> comparator(RoomSort sort) {
+        switch (sort) {
+            case OCCUPANCY:
+                return BY_OCCUPANCY;
+            case PHASE:
+                return BY_PHASE;
+            default:
+                return BY_NAME;
+        }
+    }
+
+    /**
+     * Index of the first entry ordered after the cursor's
+     */
+    private static int firstAfter(Entry[] sorted, Entry after, Comparator<Entry> order) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(sorted[mid], after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String cursorFor(RoomSort sort, Entry last) {
+        switch (sort) {
+            case OCCUPANCY:
+                return last.members + ":" + last.key;
+            case PHASE:
+                return last.phaseRank() + ":" + last.key;
+            default:
+                return last.key;
+        }
+    }
+
+    private static Entry parseCursor(RoomSort sort, String cursor) {
+        if (sort == RoomSort.NAME) {
+            return new Entry(cursor, cursor, 0, null);
+        }
+        int split = cursor.indexOf(':');
+        try {
+            int value = Integer.parseInt(cursor.substring(0, Math.max(split, 0)));
+            String key = cursor.substring(split + 1);
+            if (sort == RoomSort.OCCUPANCY) {
+                return new Entry(key, key, value, null);
+            }
+            Phase phase = value >= 0 && value < NO_PHASE_RANK ? Phase.values()[value] : null;
+            return new Entry(key, key, 0, phase);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+    }
+}
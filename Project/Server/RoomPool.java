@@ -0,0 +1,128 @@
+package Project.Server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps closed GameRooms so CREATE_ROOM can reuse them instead of allocating
+ * a new room (and its player map, history arrays and mailbox) every time.
+ * <p>
+ * A room is only handed back once it has closed on its own mailbox, and
+ * acquire() reopens it under the new name, so it's reset before anything else
+ * can reach it. Holds at most capacity rooms; the rest are left to the
+ * garbage collector.
+ * </p>
+ * Also counts how rooms come and go (fresh vs reused, and how many empty rooms
+ * lingered, were rejoined, or expired) and logs them every reportMs while
+ * rooms are being created or closed.
+ */
+public class RoomPool {
+    private final int capacity;
+    private final ArrayBlockingQueue<GameRoom> idle;
+    private final TimingWheel wheel;
+    private final long reportMs;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder lingered = new LongAdder();
+    private final LongAdder revived = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private long lastReported = -1;// <-- wheel thread only
+    private ServerLog logger = ServerLog.of(RoomPool.class);
+
+    /**
+     * @param capacity 0 disables pooling, every room is created fresh
+     */
+    public RoomPool(int capacity, TimingWheel wheel, long reportMs) {
+        this.capacity = capacity;
+        idle = new ArrayBlockingQueue<GameRoom>(Math.max(capacity, 1));
+        this.wheel = wheel;
+        this.reportMs = reportMs;
+    }
+
+    /**
+     * Starts the periodic report
+     */
+    public void start() {
+        wheel.schedule(this::report, reportMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A reset GameRoom by the given name, pooled if there's one; the caller
+     * registers it. Safe from any thread.
+     */
+    public GameRoom acquire(String name) {
+        GameRoom room = idle.poll();
+        if (room == null) {
+            created.increment();
+            return new GameRoom(name);
+        }
+        reused.increment();
+        room.reopen(name);
+        return room;
+    }
+
+    /**
+     * Called by a GameRoom on its mailbox once it has closed
+     */
+    public void release(GameRoom room) {
+        if (capacity > 0 && idle.offer(room)) {
+            released.increment();
+        } else {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Number of closed rooms waiting to be reused
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getReused() {
+        return reused.sum();
+    }
+
+    // linger bookkeeping, called by rooms on their mailbox
+
+    void onLinger() {
+        lingered.increment();
+    }
+
+    void onRevive() {
+        revived.increment();
+    }
+
+    void onExpire() {
+        expired.increment();
+    }
+
+    /**
+     * Runs on the wheel thread and reschedules itself
+     */
+    private void report() {
+        long activity = created.sum() + reused.sum() + released.sum() + discarded.sum();
+        if (activity != lastReported) {
+            logger.info("RoomPool: %s", this);
+            lastReported = activity;
+        }
+        wheel.schedule(this::report, reportMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        long c = created.sum();
+        long r = reused.sum();
+        return String.format(
+                "created[%s] reused[%s] reuse[%.1f%%] idle[%s] released[%s] discarded[%s] lingered[%s] revived[%s] expired[%s]",
+                c, r, c + r == 0 ? 0.0 : r * 100.0 / (c + r), idle.size(), released.sum(), discarded.sum(),
+                lingered.sum(), revived.sum(), expired.sum());
+    }
+}
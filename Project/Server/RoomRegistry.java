@@ -0,0 +1,161 @@
+package Project.Server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent index of rooms by case-insensitive name.
+ * <p>
+ * Lookups go through a map keyed by the normalized (lower case) name. Searches
+ * use a trigram index: every 3 character slice of a name points at the set of
+ * names containing it, so matching() only walks the smallest posting set of
+ * the query's trigrams and verifies each candidate. Paging and sorting the
+ * matches is left to the RoomDirectory.
+ * </p>
+ * Every operation is safe to call concurrently without an outside lock; a
+ * search running alongside an add/remove may or may not see that room.
+ */
+public class RoomRegistry {
+    private static final int GRAM = 3;
+    private final ConcurrentSkipListMap<String, Room> rooms = new ConcurrentSkipListMap<String, Room>();
+    private final ConcurrentHashMap<String, Posting> grams = new ConcurrentHashMap<String, Posting>();
+
+    /**
+     * Names containing one trigram; keeps its own count since
+     * ConcurrentSkipListSet.size() walks the whole set
+     */
+    private static class Posting {
+        private final NavigableSet<String> keys = new ConcurrentSkipListSet<String>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private void add(String key) {
+            if (keys.add(key)) {
+                size.incrementAndGet();
+            }
+        }
+
+        private void remove(String key) {
+            if (keys.remove(key)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    public Room get(String name) {
+        return rooms.get(normalize(name));
+    }
+
+    /**
+     * @return false if a room with the same (case-insensitive) name exists
+     */
+    public boolean add(Room room) {
+        String key = normalize(room.getName());
+        if (rooms.putIfAbsent(key, room) != null) {
+            return false;
+        }
+        for (String gram : gramsOf(key)) {
+            grams.compute(gram, (g, posting) -> {
+                if (posting == null) {
+                    posting = new Posting();
+                }
+                posting.add(key);
+                return posting;
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Only removes this exact room, not a newer room that reused its name
+     */
+    public boolean remove(Room room) {
+        String key = normalize(room.getName());
+        if (!rooms.remove(key, room)) {
+            return false;
+        }
+        for (String gram : gramsOf(key)) {
+            grams.computeIfPresent(gram, (g, posting) -> {
+                // the name may have been re-added since, leave its entries alone
+                if (!rooms.containsKey(key)) {
+                    posting.remove(key);
+                }
+                return posting.size.get() == 0 ? null : posting;
+            });
+        }
+        return true;
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    public Collection<Room> rooms() {
+        return rooms.values();
+    }
+
+    /**
+     * Every key (normalized name) containing the query, unordered, as long as the
+     * index can narrow it down to at most max candidates
+     *
+     * @return null if the query is shorter than a trigram or too common to
+     *         narrow down; the caller should scan instead
+     */
+    public List<String> matching(String query, int max) {
+        String q = normalize(query == null ? "" : query.trim());
+        if (q.length() < GRAM) {
+            return null;
+        }
+        Posting smallest = smallestPostingOf(q);
+        if (smallest == null) {
+            return List.of();
+        }
+        if (smallest.size.get() > max) {
+            return null;
+        }
+        List<String> keys = new ArrayList<String>(smallest.size.get());
+        for (String key : smallest.keys) {
+            if (key.contains(q)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return null if some trigram of q isn't in any name
+     */
+    private Posting smallestPostingOf(String q) {
+        Posting smallest = null;
+        for (String gram : gramsOf(q)) {
+            Posting posting = grams.get(gram);
+            if (posting == null) {
+                return null;// <-- no room has this slice, so none can match
+            }
+            if (smallest == null || posting.size.get() < smallest.size.get()) {
+                smallest = posting;
+            }
+        }
+        return smallest;
+    }
+
+    private static Set<String> gramsOf(String key) {
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            result.add(key.substring(i, i + GRAM));
+        }
+        return result;
+    }
+}
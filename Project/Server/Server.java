@@ -3,175 +3,364 @@ package Project.Server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.logging.Logger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import Project.Common.Constants;
-import Project.Common.TextFX;
-import Project.Common.TextFX.Color;
-
-import java.util.List;
+import Project.Common.RoomSort;
 
 public enum Server {
     INSTANCE;
 
     int port = 3001;
-    private List<Room> rooms = new ArrayList<Room>();
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final SessionIndex sessions = new SessionIndex();// <-- admitted clients, for whispers
+    // LIST_ROOMS is answered from this snapshot instead of the live rooms
+    private final RoomDirectory directory = new RoomDirectory(rooms, ServerConfig.ROOM_DIRECTORY_REFRESH_MS);
     private Room lobby = null;// default room
-    private Queue<ServerThread> incomingClients = new LinkedList<ServerThread>();
-    private boolean isRunning = true;
-    private long nextClientId = 1;// <-- uniquely identifies clients (could use a UUID but we're keeping it basic)
-    private Logger logger = Logger.getLogger(Server.class.getName());
+    // uniquely identifies clients (could use a UUID but we're keeping it basic);
+    // atomic since clients are admitted from their own reader threads
+    private final AtomicLong nextClientId = new AtomicLong(1);
+    private ServerLog logger = ServerLog.of(Server.class);
+    private ThreadFactory threadFactory = Thread.ofPlatform().factory();
+    // one wheel drives every per-connection timeout
+    private final TimingWheel wheel = new TimingWheel("server-wheel", ServerConfig.WHEEL_TICK_MS,
+            TimeUnit.MILLISECONDS, 512);
+    private final HeartbeatMonitor heartbeats = new HeartbeatMonitor(wheel, ServerConfig.HEARTBEAT_INTERVAL_MS,
+            ServerConfig.IDLE_TIMEOUT_MS);
+    private final AdmissionController admission = new AdmissionController(wheel, ServerConfig.ADMISSION_TIMEOUT_MS,
+            ServerConfig.ADMISSION_REPORT_MS);
+    private final RoomPool roomPool = new RoomPool(ServerConfig.ROOM_POOL_SIZE, wheel,
+            ServerConfig.ROOM_POOL_REPORT_MS);
+    private volatile ChatLog chatLog = null;// <-- only opened by start(), so benchmarks don't write files
+    private ServerSnapshot lastSnapshot = null;// <-- guarded by saveSnapshot()
+    private Cluster cluster = null;// <-- set by main() when it114.cluster.nodeId is, before any client
 
-    private void start(int port) {
+    private void start(int port, TransportMode mode, int ioThreads) {
         this.port = port;
+        directory.start();
+        admission.start();
+        roomPool.start();
+        logger.info("Using transport %s", mode);
+        if (mode == TransportMode.VIRTUAL) {
+            // each client read loop is a cheap virtual thread instead of a 1MB platform
+            // stack
+            threadFactory = Thread.ofVirtual().name("client-", 1).factory();
+        }
+        openChatLog();
+        scheduleSnapshots();
+        // create a lobby on start
+        lobby = new Room(Constants.LOBBY);
+        rooms.add(lobby);
+        if (mode == TransportMode.NIO) {
+            startNio(port, ioThreads);
+        } else {
+            startBlocking(port);
+        }
+    }
+
+    private void openChatLog() {
+        if (!ServerConfig.CHAT_LOG_ENABLED) {
+            return;
+        }
+        try {
+            ChatLog log = new ChatLog(Paths.get(ServerConfig.CHAT_LOG_DIR), ServerConfig.CHAT_LOG_SEGMENT_BYTES,
+                    ServerConfig.CHAT_LOG_RETAIN_BYTES, ServerConfig.CHAT_LOG_RETAIN_MS, ServerConfig.CHAT_LOG_SYNC,
+                    ServerConfig.CHAT_LOG_QUEUE);
+            // flush what's queued when the server is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(log::close, "chat-log-close"));
+            chatLog = log;
+        } catch (IOException e) {
+            logger.severe("Couldn't open the chat log, room traffic won't be recorded: %s", e);
+        }
+    }
+
+    /**
+     * Joins the cluster if this process is configured as one of its nodes
+     */
+    private void startCluster() {
+        if (ServerConfig.CLUSTER_NODE_ID <= 0) {
+            return;
+        }
+        try {
+            Cluster c = new Cluster(ServerConfig.CLUSTER_NODE_ID, Cluster.parseNodes(ServerConfig.CLUSTER_NODES),
+                    directory);
+            c.start();
+            cluster = c;
+        } catch (Exception e) {
+            logger.severe("Couldn't join the cluster, running on its own: %s", e);
+        }
+    }
+
+    /**
+     * Recreates the rooms, phases, ready flags and client id counter from the
+     * last snapshot, if there is one. Called before start() so the rooms are
+     * there before the first client is accepted.
+     */
+    private void restoreSnapshot() {
+        if (!ServerConfig.SNAPSHOT_ENABLED) {
+            return;
+        }
+        ServerSnapshot snapshot;
+        try {
+            snapshot = ServerSnapshot.read(Paths.get(ServerConfig.SNAPSHOT_FILE));
+        } catch (IOException e) {
+            logger.warning("Couldn't read the snapshot, starting empty: %s", e);
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        nextClientId.accumulateAndGet(snapshot.getNextClientId(), Math::max);
+        int restored = 0;
+        for (ServerSnapshot.RoomState saved : snapshot.getRooms()) {
+            if (saved.getName().equalsIgnoreCase(Constants.LOBBY)) {
+                continue;// <-- start() creates it
+            }
+            if (cluster != null && !cluster.isLocal(saved.getName())) {
+                continue;// <-- belongs to another node now
+            }
+            Room room = saved.isGameRoom() ? new GameRoom(saved.getName()) : new Room(saved.getName());
+            if (!rooms.add(room)) {
+                continue;
+            }
+            if (room instanceof GameRoom) {
+                ((GameRoom) room).restore(saved);
+            }
+            // normally the last one out closes a room; nobody may come back to this one
+            wheel.schedule(room::closeIfEmpty, ServerConfig.SNAPSHOT_GRACE_MS, TimeUnit.MILLISECONDS);
+            restored++;
+        }
+        logger.info("Restored %s rooms from the snapshot taken at %tT, next client id %s", restored,
+                snapshot.getTakenAt(), nextClientId.get());
+    }
+
+    private void scheduleSnapshots() {
+        if (!ServerConfig.SNAPSHOT_ENABLED) {
+            return;
+        }
+        ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("server-snapshot").daemon().factory());
+        snapshots.scheduleWithFixedDelay(this::saveSnapshot, ServerConfig.SNAPSHOT_INTERVAL_MS,
+                ServerConfig.SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // the one that matters on a deploy
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveSnapshot, "server-snapshot-final"));
+    }
+
+    /**
+     * Writes a snapshot if anything changed since the last one. Only collects
+     * each room's published state, so rooms keep running throughout; the lock
+     * only keeps the periodic and shutdown writers apart.
+     */
+    private synchronized void saveSnapshot() {
+        try {
+            ServerSnapshot snapshot = ServerSnapshot.capture(nextClientId.get(), rooms.rooms());
+            if (snapshot.isSameAs(lastSnapshot)) {
+                return;
+            }
+            ServerSnapshot.write(Paths.get(ServerConfig.SNAPSHOT_FILE), snapshot.encode());
+            lastSnapshot = snapshot;
+        } catch (Exception e) {
+            // a scheduled task that throws is never run again
+            logger.warning("Couldn't write the snapshot: %s", e);
+        }
+    }
+
+    /**
+     * Records room traffic in the chat log, if there is one; never blocks
+     */
+    protected void record(ChatLog.Kind kind, String room, ServerThread client, String message) {
+        ChatLog log = chatLog;
+        if (log != null) {
+            log.append(kind, room, client.getClientId(), client.getClientName(), message);
+        }
+    }
+
+    private void startBlocking(int port) {
         // server listening
         try (ServerSocket serverSocket = new ServerSocket(port);) {
             Socket incoming_client = null;
-            logger.info("Server is listening on port " + port);
-            startQueueManager();
-            // create a lobby on start
-            lobby = new Room(Constants.LOBBY);
-            rooms.add(lobby);
+            logger.info("Server is listening on port %s", port);
             do {
                 logger.info("waiting for next client");
                 if (incoming_client != null) {
                     logger.info("Client connected");
                     ServerThread sClient = new ServerThread(incoming_client);
 
-                    sClient.start();
-                    incomingClients.add(sClient);
+                    threadFactory.newThread(sClient).start();
+                    onAccepted(sClient);
                     incoming_client = null;
 
                 }
             } while ((incoming_client = serverSocket.accept()) != null);
         } catch (IOException e) {
-            logger.severe("Error accepting connection");
-            e.printStackTrace();
+            logger.severe("Error accepting connections on port %s", port, e);
         } finally {
             logger.info("closing server socket");
         }
     }
 
-    private void startQueueManager() {
-        logger.info(TextFX.colorize("Starting queue manager", Color.PURPLE));
-        new Thread() {
-            @Override
-            public void run() {
-                while (isRunning) {
-                    try {
-                        Thread.sleep(10);
-                    } catch (Exception e) {
-                        logger.severe("Some thread problem");
-                        e.printStackTrace();
-                    }
-                    if (incomingClients.size() > 0) {
-                        ServerThread incomingClient = incomingClients.peek();
-                        if (incomingClient.isRunning() && incomingClient.getClientName() != null) {
-                            handleIncomingClient(incomingClient);
-                            incomingClients.poll();// <-- remove the handled client
-                        }
-                    }
-                }
-                logger.info(TextFX.colorize("Terminating queue manager", Color.PURPLE));
-            }
-        }.start();
+    private void startNio(int port, int ioThreads) {
+        try {
+            NioTransport transport = new NioTransport(ioThreads);
+            transport.serve(port, sClient -> {
+                logger.info("Client connected");
+                onAccepted(sClient);
+            });
+        } catch (IOException e) {
+            logger.severe("Error accepting connections on port %s", port, e);
+        } finally {
+            logger.info("closing server socket");
+        }
     }
 
-    private void handleIncomingClient(ServerThread incomingClient) {
-        incomingClient.setClientId(nextClientId);
-        // incomingClient.sendClientId(nextClientId);
-        nextClientId++;
-        if (nextClientId < 0) {
-            nextClientId = 1; // <-- by some lucky chance it overflows, restart the count
-        }
+    private void onAccepted(ServerThread sClient) {
+        heartbeats.watch(sClient);
+        admission.onAccepted(sClient);
+    }
+
+    /**
+     * Called by a session once it has sent CONNECT
+     */
+    protected void admit(ServerThread client) {
+        admission.admit(client);
+    }
+
+    protected void handleIncomingClient(ServerThread incomingClient) {
+        // by some lucky chance it overflows, restart the count
+        long id = nextClientId.getAndUpdate(n -> n == Long.MAX_VALUE ? 1 : n + 1);
+        incomingClient.setClientId(cluster == null ? id : cluster.globalClientId(id));
+        sessions.add(incomingClient);
         joinRoom(Constants.LOBBY, incomingClient);
     }
+
+    /**
+     * Called by a session once its connection has closed
+     */
+    protected void onDisconnected(ServerThread client) {
+        sessions.remove(client);
+    }
+
+    /**
+     * A connected client by id, null if it's not connected here
+     */
+    ServerThread getSession(long clientId) {
+        return sessions.get(clientId);
+    }
+
+    /**
+     * Sends a private message straight to one client's queue, wherever they are;
+     * the sender gets a copy as confirmation
+     * 
+     * @param targetId   recipient's id, 0 or less (ids start at 1) to go by name
+     * @param targetName recipient's name (case-insensitive) when there's no id
+     */
+    protected void whisper(ServerThread sender, long targetId, String targetName, String message) {
+        if (message == null || message.isBlank()) {
+            return;
+        }
+        ServerThread target = null;
+        if (targetId > 0) {
+            target = sessions.get(targetId);
+        } else if (targetName != null) {
+            Collection<ServerThread> named = sessions.named(targetName);
+            if (named.size() > 1) {
+                sender.sendMessage(Constants.DEFAULT_CLIENT_ID,
+                        String.format("More than one user is called %s, whisper by id instead", targetName));
+                return;
+            }
+            target = named.isEmpty() ? null : named.iterator().next();
+        }
+        if (target == null) {
+            sender.sendMessage(Constants.DEFAULT_CLIENT_ID, String.format("User %s isn't online",
+                    targetId > 0 ? "#" + targetId : targetName));
+            return;
+        }
+        // the sender's copy first so it's the one answering their request
+        sender.sendWhisper(sender.getClientId(), target.getClientName(), message);
+        target.sendWhisper(sender.getClientId(), sender.getClientName(), message);
+    }
     /***
      * Helper function to check if room exists by case insensitive name
      * 
      * @param roomName The name of the room to look for
      * @return matched Room or null if not found
      */
-    private Room getRoom(String roomName) {
-        for (int i = 0, l = rooms.size(); i < l; i++) {
-            if (rooms.get(i).getName().equalsIgnoreCase(roomName)) {
-                return rooms.get(i);
-            }
-        }
-        return null;
+    Room getRoom(String roomName) {
+        return rooms.get(roomName);
     }
 
     /***
-     * Attempts to join a room by name. Will remove client from old room and add
-     * them to the new room.
+     * Attempts to join a room by name. The move itself happens on the new room's
+     * mailbox, which also takes the client out of the old room and answers the
+     * request; Server takes no locks (the registry is concurrent) so moves into
+     * different rooms never wait on each other.
      * 
      * @param roomName The desired room to join
      * @param client   The client moving rooms
-     * @return true if reassign worked; false if new room doesn't exist
-     */
-    protected synchronized boolean joinRoom(String roomName, ServerThread client) {
-        Room newRoom = roomName.equalsIgnoreCase(Constants.LOBBY) ? lobby : getRoom(roomName);
-        Room oldRoom = client.getCurrentRoom();
-        if (newRoom != null) {
-            if (oldRoom != null) {
-                logger.info(client.getName() + " leaving room " + oldRoom.getName());
-                oldRoom.removeClient(client);
-            }
-            logger.info(client.getName() + " joining room " + newRoom.getName());
-            newRoom.addClient(client);
-            return true;
-        } else {
+     * @return true if the move was handed to the room; false if it doesn't exist
+     */
+    protected boolean joinRoom(String roomName, ServerThread client) {
+        if (cluster != null && cluster.forwardJoin(roomName, client)) {
+            return true;// <-- the owning node answers
+        }
+        Room newRoom = findRoom(roomName);
+        if (newRoom == null) {
             client.sendMessage(Constants.DEFAULT_CLIENT_ID,
                     String.format("Room %s wasn't found, please try another", roomName));
+            return false;
         }
-        return false;
+        logger.info("%s joining room %s", client.getClientName(), newRoom.getName());
+        newRoom.addClient(client, client.deferReply(), roomName);
+        return true;
     }
 
     /**
-     * Gets a result of rooms similar to the search string, up to 10
-     * 
-     * @param searchString
-     * @return
+     * Hands CREATE_ROOM to the owning node if another one owns the name
+     *
+     * @return false if the caller should create the room here
      */
-    protected synchronized List<String> listRooms(String searchString) {
-        return listRooms(searchString, 10);
+    protected boolean forwardCreate(String roomName, ServerThread client) {
+        return cluster != null && cluster.forwardCreate(roomName, client);
+    }
+
+    private Room findRoom(String roomName) {
+        return roomName.equalsIgnoreCase(Constants.LOBBY) ? lobby : getRoom(roomName);
     }
 
     /**
-     * Gets a result of rooms similar to the search string, between 1-100 results
+     * One page of rooms (between 1-100 results) from the RoomDirectory snapshot,
+     * which may be up to ServerConfig.ROOM_DIRECTORY_REFRESH_MS behind
      * 
-     * @param searchString
-     * @param limit
-     * @return
+     * @param cursor from the previous page, null for the first
+     * @return null if the limit is out of range
+     * @throws IllegalArgumentException if the cursor isn't one this sort hands out
      */
-    protected synchronized List<String> listRooms(String searchString, int limit) {
-        // TODO
+    protected RoomDirectory.Page listRooms(String searchString, RoomSort sort, String cursor, int limit) {
         if (limit < 1 || limit > 100) {
             return null;
         }
-        List<String> matchedRooms = new ArrayList<String>();
-        Iterator<Room> iter = rooms.iterator();
-        while (iter.hasNext()) {
-            Room currentRoom = iter.next();
-            logger.fine("Checking Room " + currentRoom.getName());
-            // if we don't have a particular search, simply add the room
-            if (searchString == null || searchString.isBlank()) {
-                matchedRooms.add(currentRoom.getName());
-            } // if we have a particular search and the room name is "like" the search string,
-              // add the room
-            else if (currentRoom.getName().toLowerCase().contains(searchString.toLowerCase())) {
-                matchedRooms.add(currentRoom.getName());
-            }
-            if (matchedRooms.size() >= limit) {
-                break;
-            }
-        }
+        return directory.page(searchString, sort, cursor, limit);
+    }
 
-        return matchedRooms;
+    /**
+     * Rooms hosted by this process (in a cluster, the ones this node owns)
+     */
+    Collection<Room> localRooms() {
+        return rooms.rooms();
+    }
+
+    /**
+     * Rebuilds the room snapshot now instead of waiting for the refresher
+     */
+    void refreshRoomDirectory() {
+        directory.refresh();
     }
 
     /***
@@ -180,26 +369,42 @@ public enum Server {
      * @param roomName The desired room to create
      * @return true if it was created and false if it exists
      */
-    protected synchronized boolean createNewRoom(String roomName) {
+    protected boolean createNewRoom(String roomName) {
         if (getRoom(roomName) != null) {
             // TODO can't create room
-            logger.warning(String.format("Room %s already exists", roomName));
+            logger.warning("Room %s already exists", roomName);
+            return false;
+        }
+        // Chatroom probably doesn't need gameroom and can just have this line
+        // uncommented instead
+        // Room room = new Room(roomName);
+        // other projects, any new room is a GameRoom (a closed one reset for reuse if
+        // the pool has one)
+        GameRoom room = roomPool.acquire(roomName);
+        // check again atomically in case someone else created it since
+        if (!rooms.add(room)) {
+            logger.warning("Room %s already exists", roomName);
+            room.execute(room::close);// <-- never registered, just goes back to the pool
             return false;
-        } else {
-            // Chatroom probably doesn't need gameroom and can just have this line
-            // uncommented instead
-            // Room room = new Room(roomName);
-            // other projects, any new room is a GameRoom
-            GameRoom room = new GameRoom(roomName);
-            rooms.add(room);
-            logger.info("Created new room: " + roomName);
-            return true;
         }
+        logger.info("Created new room: %s", roomName);
+        return true;
+    }
+
+    RoomPool getRoomPool() {
+        return roomPool;
     }
 
-    protected synchronized void removeRoom(Room r) {
-        if (rooms.removeIf(room -> room == r)) {
-            logger.info("Removed empty room " + r.getName());
+    /**
+     * Runs task on the server's TimingWheel thread after roughly delayMs
+     */
+    TimingWheel.Timeout schedule(Runnable task, long delayMs) {
+        return wheel.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    protected void removeRoom(Room r) {
+        if (rooms.remove(r)) {
+            logger.info("Removed empty room %s", r.getName());
         }
     }
 
@@ -209,13 +414,23 @@ public enum Server {
      * 
      * @param message
      */
-    protected synchronized void broadcast(String message) {
+    protected void broadcast(String message) {
         if (processCommand(message)) {
 
             return;
         }
-        // loop over rooms and send out the message
-        Iterator<Room> it = rooms.iterator();
+        broadcastLocal(message);
+        if (cluster != null) {
+            cluster.broadcast(message);
+        }
+    }
+
+    /**
+     * Sends the message to this process's rooms only
+     */
+    protected void broadcastLocal(String message) {
+        // loop over rooms and send out the message; each room only takes its own lock
+        Iterator<Room> it = rooms.rooms().iterator();
         while (it.hasNext()) {
             Room room = it.next();
             if (room != null) {
@@ -225,12 +440,17 @@ public enum Server {
     }
 
     private boolean processCommand(String message) {
-        logger.info("Checking command: " + message);
+        logger.info("Checking command: %s", message);
         // TODO
         return false;
     }
 
+    /**
+     * Usage: Server [port] [blocking|virtual|nio] [ioThreads]
+     */
     public static void main(String[] args) {
+        // coloured session/room records only get their colour on the console
+        ServerLog.installConsoleColors();
         Server.INSTANCE.logger.info("Starting Server");
         Server server = Server.INSTANCE;// new Server();
         int port = 3000;
@@ -240,7 +460,21 @@ public enum Server {
             // can ignore, will either be index out of bounds or type mismatch
             // will default to the defined value prior to the try/catch
         }
-        server.start(port);
+        TransportMode mode = TransportMode.BLOCKING;
+        try {
+            mode = TransportMode.valueOf(args[1].toUpperCase());
+        } catch (Exception e) {
+            // same as above, default to blocking
+        }
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+        try {
+            ioThreads = Integer.parseInt(args[2]);
+        } catch (Exception e) {
+            // same as above, default to one event loop per core
+        }
+        server.startCluster();
+        server.restoreSnapshot();
+        server.start(port, mode, ioThreads);
         Server.INSTANCE.logger.info("Server Stopped");
     }
 }
\ No newline at end of file
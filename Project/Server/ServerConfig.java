@@ -0,0 +1,191 @@
+package Project.Server;
+
+import java.util.concurrent.TimeUnit;
+
+import Project.Common.FrameCompressor;
+import Project.Common.WireProtocol;
+
+/**
+ * Tunables read once from system properties (e.g.
+ * -Dit114.outbound.policy=drop) so they can be changed without touching the
+ * Server's positional arguments
+ */
+public abstract class ServerConfig {
+    /**
+     * Queued payloads per client before the SlowConsumerPolicy kicks in
+     */
+    public static final int OUTBOUND_HIGH_WATER_MARK = Integer.getInteger("it114.outbound.highWater", 256);
+    /**
+     * Queued payloads per client before it's disconnected regardless of policy
+     */
+    public static final int OUTBOUND_CAPACITY = Integer.getInteger("it114.outbound.capacity", 1024);
+    public static final SlowConsumerPolicy OUTBOUND_POLICY = SlowConsumerPolicy
+            .valueOf(System.getProperty("it114.outbound.policy", "coalesce").toUpperCase());
+    /**
+     * Size of the per-client write buffer; a full buffer is always written out
+     */
+    public static final int FLUSH_MAX_BYTES = Integer.getInteger("it114.flush.maxBytes", 16 * 1024);
+    /**
+     * Longest a written payload may sit unflushed while a batch is holding the
+     * connection corked
+     */
+    public static final long FLUSH_MAX_LATENCY_MS = Long.getLong("it114.flush.maxLatencyMs", 20);
+    /**
+     * Legacy object streams are reset after this many payloads...
+     */
+    public static final int STREAM_RESET_OBJECTS = Integer.getInteger("it114.stream.resetObjects", 256);
+    /**
+     * ...or once roughly this many bytes have been written since the last reset
+     */
+    public static final long STREAM_RESET_BYTES = Long.getLong("it114.stream.resetBytes", 64 * 1024);
+    /**
+     * Whether to grant frame compression to clients that ask for it
+     */
+    public static final boolean COMPRESSION_ENABLED = Boolean
+            .parseBoolean(System.getProperty("it114.compression.enabled", "true"));
+    /**
+     * Frames smaller than this (in bytes) are never compressed
+     */
+    public static final int COMPRESSION_THRESHOLD = Integer.getInteger("it114.compression.threshold",
+            FrameCompressor.DEFAULT_THRESHOLD);
+    public static final int COMPRESSION_LEVEL = Integer.getInteger("it114.compression.level",
+            FrameCompressor.DEFAULT_LEVEL);
+
+    /**
+     * A client that's been quiet this long is sent a PING
+     */
+    public static final long HEARTBEAT_INTERVAL_MS = Long.getLong("it114.heartbeat.intervalMs", 15_000);
+    /**
+     * A client that's been quiet this long is evicted; it has had
+     * IDLE_TIMEOUT_MS / HEARTBEAT_INTERVAL_MS pings to answer
+     */
+    public static final long IDLE_TIMEOUT_MS = Long.getLong("it114.heartbeat.timeoutMs", 45_000);
+    /**
+     * Resolution of the Server's timing wheel (heartbeats, admission timeouts)
+     */
+    public static final long WHEEL_TICK_MS = Long.getLong("it114.wheel.tickMs", 250);
+    /**
+     * A connection that hasn't sent CONNECT this long after being accepted is
+     * dropped
+     */
+    public static final long ADMISSION_TIMEOUT_MS = Long.getLong("it114.admission.timeoutMs", 10_000);
+    /**
+     * How often admission metrics are logged (only when something was accepted)
+     */
+    public static final long ADMISSION_REPORT_MS = Long.getLong("it114.admission.reportMs", 60_000);
+    /**
+     * Threads shared by every room's mailbox
+     */
+    public static final int ROOM_WORKERS = Integer.getInteger("it114.room.workers",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Client events (messages, ready) a room will queue before refusing more
+     */
+    public static final int ROOM_MAILBOX_CAPACITY = Integer.getInteger("it114.room.mailboxCapacity", 1024);
+    /**
+     * Messages a room keeps for joiners to catch up on (0 to keep none)...
+     */
+    public static final int ROOM_HISTORY_SIZE = Integer.getInteger("it114.room.historySize", 50);
+    /**
+     * ...within this many bytes of UTF-8 sender names and texts
+     */
+    public static final int ROOM_HISTORY_BYTES = Integer.getInteger("it114.room.historyBytes", 16 * 1024);
+    /**
+     * How long an empty room stays open for people to come back to it (0 closes
+     * it as soon as the last one leaves)
+     */
+    public static final long ROOM_LINGER_MS = Long.getLong("it114.room.lingerMs", 0);
+    /**
+     * Closed GameRooms kept, reset, for the next CREATE_ROOM to reuse (0 to
+     * always create a new one)
+     */
+    public static final int ROOM_POOL_SIZE = Integer.getInteger("it114.room.poolSize", 16);
+    /**
+     * How often room pool and linger metrics are logged (only when rooms were
+     * created or closed)
+     */
+    public static final long ROOM_POOL_REPORT_MS = Long.getLong("it114.room.poolReportMs", 60_000);
+    /**
+     * How often the LIST_ROOMS snapshot is rebuilt (when something changed)
+     */
+    public static final long ROOM_DIRECTORY_REFRESH_MS = Long.getLong("it114.rooms.refreshMs", 1_000);
+    /**
+     * Whether room traffic is written to the ChatLog; off unless asked for since
+     * it keeps up to CHAT_LOG_RETAIN_BYTES on disk and forces every batch to it
+     */
+    public static final boolean CHAT_LOG_ENABLED = Boolean
+            .parseBoolean(System.getProperty("it114.chatlog.enabled", "false"));
+    public static final String CHAT_LOG_DIR = System.getProperty("it114.chatlog.dir", "chatlog");
+    /**
+     * Size of each preallocated segment file
+     */
+    public static final int CHAT_LOG_SEGMENT_BYTES = Integer.getInteger("it114.chatlog.segmentBytes",
+            16 * 1024 * 1024);
+    /**
+     * Oldest segments are deleted once all of them add up to more than this...
+     */
+    public static final long CHAT_LOG_RETAIN_BYTES = Long.getLong("it114.chatlog.retainBytes",
+            1024L * 1024 * 1024);
+    /**
+     * ...or once everything in them is older than this
+     */
+    public static final long CHAT_LOG_RETAIN_MS = Long.getLong("it114.chatlog.retainMs",
+            TimeUnit.DAYS.toMillis(7));
+    /**
+     * Whether each batch is forced to disk; false leaves it to the OS page cache
+     * (survives the server dying, not the machine)
+     */
+    public static final boolean CHAT_LOG_SYNC = Boolean
+            .parseBoolean(System.getProperty("it114.chatlog.sync", "true"));
+    /**
+     * Records waiting for the writer before new ones are dropped
+     */
+    public static final int CHAT_LOG_QUEUE = Integer.getInteger("it114.chatlog.queue", 64 * 1024);
+    /**
+     * Session and room logging is formatted and written by a background thread
+     * (false writes it on the calling thread, e.g. when debugging)
+     */
+    public static final boolean LOG_ASYNC = Boolean.parseBoolean(System.getProperty("it114.log.async", "true"));
+    /**
+     * Log records waiting for the writer before new ones are dropped (rounded up
+     * to a power of 2)
+     */
+    public static final int LOG_RING_SIZE = Integer.getInteger("it114.log.ringSize", 8 * 1024);
+    /**
+     * Whether rooms and the client id counter are snapshotted and restored on
+     * startup; off unless asked for, so a plain restart starts clean
+     */
+    public static final boolean SNAPSHOT_ENABLED = Boolean
+            .parseBoolean(System.getProperty("it114.snapshot.enabled", "false"));
+    public static final String SNAPSHOT_FILE = System.getProperty("it114.snapshot.file", "server.snapshot");
+    /**
+     * How often a snapshot is written (when something changed); one is also
+     * written on shutdown
+     */
+    public static final long SNAPSHOT_INTERVAL_MS = Long.getLong("it114.snapshot.intervalMs", 30_000);
+    /**
+     * A restored room nobody has rejoined after this long is closed
+     */
+    public static final long SNAPSHOT_GRACE_MS = Long.getLong("it114.snapshot.graceMs", 120_000);
+    /**
+     * This process's id in the cluster (1-1023); 0 runs a standalone server
+     */
+    public static final int CLUSTER_NODE_ID = Integer.getInteger("it114.cluster.nodeId", 0);
+    /**
+     * Every node's id and cluster link address, this one included, e.g.
+     * "1=localhost:4101,2=localhost:4102"; all nodes need the same list
+     */
+    public static final String CLUSTER_NODES = System.getProperty("it114.cluster.nodes", "");
+
+    /**
+     * Creates a compressor if the client asked for one and it's enabled
+     * 
+     * @return the compressor or null if frames stay uncompressed
+     */
+    public static FrameCompressor compressorFor(byte[] handshake) {
+        if (!COMPRESSION_ENABLED || !WireProtocol.isCompressed(handshake)) {
+            return null;
+        }
+        return new FrameCompressor(COMPRESSION_THRESHOLD, COMPRESSION_LEVEL);
+    }
+}
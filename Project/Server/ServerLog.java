@@ -0,0 +1,357 @@
+package Project.Server;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import Project.Common.TextFX;
+import Project.Common.TextFX.Color;
+
+/**
+ * Logging for the per-message paths (sessions, rooms, games) that stays off
+ * the threads doing network I/O.
+ * <p>
+ * A call first asks java.util.logging whether the level is enabled and returns
+ * right away if not, before anything is formatted or even concatenated: the
+ * format and its arguments are passed separately. Enabled records are copied
+ * into a slot of a ring buffer allocated once at startup and a single
+ * "server-log" thread formats them and hands them to the logger's handlers,
+ * so String.format, the handlers' locks and the console write all happen
+ * there. If the ring is full the record is dropped and counted rather than
+ * making the caller wait.
+ * </p>
+ * <p>
+ * A record can carry a TextFX colour; only console handlers (using
+ * ConsoleFormatter, see installConsoleColors()) apply it, so files and other
+ * handlers get plain text.
+ * </p>
+ * Arguments are formatted later on another thread, so only pass values that
+ * won't change afterwards (Strings, numbers, received payloads) or that are
+ * fine to read a moment later (a component's running counters).
+ */
+public class ServerLog {
+    private static final Ring RING = ServerConfig.LOG_ASYNC ? new Ring(ServerConfig.LOG_RING_SIZE) : null;
+    private final Logger logger;
+
+    private ServerLog(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static ServerLog of(Class<?> type) {
+        return new ServerLog(Logger.getLogger(type.getName()));
+    }
+
+    public boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    /**
+     * A message that needs no formatting
+     */
+    public void info(String message) {
+        log(Level.INFO, null, message, null, null, null, 0, null);
+    }
+
+    public void info(String format, Object arg) {
+        log(Level.INFO, null, format, arg, null, null, 1, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        log(Level.INFO, null, format, arg1, arg2, null, 2, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        log(Level.INFO, null, format, arg1, arg2, arg3, 3, null);
+    }
+
+    /**
+     * Coloured on the console only
+     */
+    public void info(Color color, String format, Object arg) {
+        log(Level.INFO, color, format, arg, null, null, 1, null);
+    }
+
+    public void info(Color color, String format, Object arg1, Object arg2) {
+        log(Level.INFO, color, format, arg1, arg2, null, 2, null);
+    }
+
+    public void warning(String message) {
+        log(Level.WARNING, null, message, null, null, null, 0, null);
+    }
+
+    public void warning(String format, Object arg) {
+        log(Level.WARNING, null, format, arg, null, null, 1, null);
+    }
+
+    public void warning(String format, Object arg1, Object arg2) {
+        log(Level.WARNING, null, format, arg1, arg2, null, 2, null);
+    }
+
+    public void warning(String format, Object arg1, Object arg2, Object arg3) {
+        log(Level.WARNING, null, format, arg1, arg2, arg3, 3, null);
+    }
+
+    public void warning(Color color, String format, Object arg) {
+        log(Level.WARNING, color, format, arg, null, null, 1, null);
+    }
+
+    public void severe(String message) {
+        log(Level.SEVERE, null, message, null, null, null, 0, null);
+    }
+
+    public void severe(String format, Object arg) {
+        log(Level.SEVERE, null, format, arg, null, null, 1, null);
+    }
+
+    /**
+     * With the stack trace
+     */
+    public void severe(String format, Object arg, Throwable thrown) {
+        log(Level.SEVERE, null, format, arg, null, null, 1, thrown);
+    }
+
+    public void severe(String format, Object arg1, Object arg2, Throwable thrown) {
+        log(Level.SEVERE, null, format, arg1, arg2, null, 2, thrown);
+    }
+
+    public void fine(String format, Object arg1, Object arg2) {
+        log(Level.FINE, null, format, arg1, arg2, null, 2, null);
+    }
+
+    private void log(Level level, Color color, String format, Object arg1, Object arg2, Object arg3, int args,
+            Throwable thrown) {
+        if (!logger.isLoggable(level)) {
+            return;// <-- nothing formatted, nothing queued
+        }
+        if (RING == null || !RING.offer(logger, level, color, format, arg1, arg2, arg3, args, thrown)) {
+            // synchronous logging configured (or the writer is gone)
+            logger.log(record(logger, level, color, format, arg1, arg2, arg3, args, thrown,
+                    System.currentTimeMillis(), Thread.currentThread().threadId()));
+        }
+    }
+
+    private static ColoredRecord record(Logger logger, Level level, Color color, String format, Object arg1,
+            Object arg2, Object arg3, int args, Throwable thrown, long millis, long threadId) {
+        String message;
+        try {
+            message = args == 0 ? format
+                    : args == 1 ? String.format(format, arg1)
+                    : args == 2 ? String.format(format, arg1, arg2) : String.format(format, arg1, arg2, arg3);
+        } catch (RuntimeException e) {
+            message = format + " (couldn't format: " + e + ")";
+        }
+        ColoredRecord record = new ColoredRecord(level, message, color);
+        record.setLoggerName(logger.getName());
+        // otherwise it's inferred from the stack, which is the log writer's by now
+        record.setSourceClassName(logger.getName());
+        record.setSourceMethodName(null);
+        record.setThrown(thrown);
+        record.setInstant(Instant.ofEpochMilli(millis));
+        record.setLongThreadID(threadId);
+        return record;
+    }
+
+    /**
+     * Gives the root logger's console handlers the ConsoleFormatter so coloured
+     * records show up coloured there (and only there)
+     */
+    public static void installConsoleColors() {
+        for (Handler h : Logger.getLogger("").getHandlers()) {
+            if (h instanceof ConsoleHandler) {
+                h.setFormatter(new ConsoleFormatter());
+            }
+        }
+    }
+
+    /**
+     * Writes out whatever is still queued; for shutdown
+     */
+    public static void flush() {
+        if (RING != null) {
+            RING.drain();
+        }
+    }
+
+    /**
+     * A LogRecord with the TextFX colour its message should have on a console
+     */
+    public static class ColoredRecord extends LogRecord {
+        private static final long serialVersionUID = 1L;
+        private final transient Color color;
+
+        public ColoredRecord(Level level, String message, Color color) {
+            super(level, message);
+            this.color = color;
+        }
+
+        /**
+         * null for the console's default
+         */
+        public Color getColor() {
+            return color;
+        }
+    }
+
+    /**
+     * SimpleFormatter that colours ColoredRecords' messages
+     */
+    public static class ConsoleFormatter extends SimpleFormatter {
+        @Override
+        public synchronized String formatMessage(LogRecord record) {
+            String message = super.formatMessage(record);
+            if (record instanceof ColoredRecord && ((ColoredRecord) record).getColor() != null) {
+                return TextFX.colorize(message, ((ColoredRecord) record).getColor());
+            }
+            return message;
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring of preallocated slots.
+     * Producers claim a sequence with a CAS on tail, fill the slot and publish
+     * it by writing its sequence; the writer takes slots in order and frees
+     * them by advancing head. The writer parks when it runs out and the next
+     * producer to publish unparks it.
+     */
+    private static class Ring {
+        private static final long DROP_REPORT_MS = 10_000;
+        private final Slot[] slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head = 0;// <-- written by the writer only
+        private volatile boolean isParked = false;
+        private final LongAdder dropped = new LongAdder();
+        private long reportedDrops = 0;// <-- writer only
+        private long lastDropReport = 0;// <-- writer only
+        private final Thread writer;
+
+        private static class Slot {
+            private volatile long published = -1;// <-- sequence it holds once filled
+            private Logger logger;
+            private Level level;
+            private Color color;
+            private String format;
+            private Object arg1;
+            private Object arg2;
+            private Object arg3;
+            private int args;
+            private Throwable thrown;
+            private long millis;
+            private long threadId;
+        }
+
+        private Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            slots = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot();
+            }
+            mask = size - 1;
+            writer = Thread.ofPlatform().name("server-log").daemon().start(this::run);
+            // whatever is still queued when the server stops
+            Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "server-log-flush"));
+        }
+
+        /**
+         * @return false if the writer isn't running (the caller logs it itself);
+         *         a full ring drops the record and still returns true
+         */
+        private boolean offer(Logger logger, Level level, Color color, String format, Object arg1, Object arg2,
+                Object arg3, int args, Throwable thrown) {
+            if (!writer.isAlive()) {
+                return false;
+            }
+            long sequence;
+            do {
+                sequence = tail.get();
+                if (sequence - head >= slots.length) {
+                    dropped.increment();
+                    return true;
+                }
+            } while (!tail.compareAndSet(sequence, sequence + 1));
+            Slot slot = slots[(int) (sequence & mask)];
+            slot.logger = logger;
+            slot.level = level;
+            slot.color = color;
+            slot.format = format;
+            slot.arg1 = arg1;
+            slot.arg2 = arg2;
+            slot.arg3 = arg3;
+            slot.args = args;
+            slot.thrown = thrown;
+            slot.millis = System.currentTimeMillis();
+            slot.threadId = Thread.currentThread().threadId();
+            slot.published = sequence;// <-- publishes the fields above
+            if (isParked) {
+                LockSupport.unpark(writer);
+            }
+            return true;
+        }
+
+        private void run() {
+            while (true) {
+                if (!drain()) {
+                    isParked = true;
+                    // a producer that published before seeing isParked is caught here
+                    if (slots[(int) (head & mask)].published != head) {
+                        LockSupport.parkNanos(this, 100_000_000L);
+                    }
+                    isParked = false;
+                }
+            }
+        }
+
+        /**
+         * Writes out every published slot in order
+         *
+         * @return false if there was nothing to write
+         */
+        private synchronized boolean drain() {
+            boolean didWork = false;
+            while (true) {
+                long next = head;
+                Slot slot = slots[(int) (next & mask)];
+                if (slot.published != next) {
+                    break;
+                }
+                Logger logger = slot.logger;
+                LogRecord record = record(logger, slot.level, slot.color, slot.format, slot.arg1, slot.arg2,
+                        slot.arg3, slot.args, slot.thrown, slot.millis, slot.threadId);
+                // let go of the arguments before the slot is reused
+                slot.logger = null;
+                slot.format = null;
+                slot.arg1 = null;
+                slot.arg2 = null;
+                slot.arg3 = null;
+                slot.thrown = null;
+                head = next + 1;
+                try {
+                    logger.log(record);
+                } catch (RuntimeException e) {
+                    // a failing handler mustn't stop the writer
+                }
+                didWork = true;
+            }
+            reportDrops();
+            return didWork;
+        }
+
+        private void reportDrops() {
+            long drops = dropped.sum();
+            long now = System.currentTimeMillis();
+            if (drops != reportedDrops && now - lastDropReport >= DROP_REPORT_MS) {
+                Logger.getLogger(ServerLog.class.getName()).warning(String.format(
+                        "Log ring full, dropped %s records (%s total)", drops - reportedDrops, drops));
+                reportedDrops = drops;
+                lastDropReport = now;
+            }
+        }
+    }
+}
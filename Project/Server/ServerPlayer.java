@@ -3,15 +3,15 @@ package Project.Server;
 import Project.Common.Constants;
 import Project.Common.Phase;
 import Project.Common.Player;
-import Project.Common.TextFX;
 import Project.Common.TextFX.Color;
 
 public class ServerPlayer extends Player {
     private ServerThread client;
+    private ServerLog logger = ServerLog.of(ServerPlayer.class);
 
     public ServerPlayer(ServerThread t) {
         client = t;
-        System.out.println(TextFX.colorize("Wrapped ServerThread " + t.getClientName(), Color.CYAN));
+        logger.info(Color.CYAN, "Wrapped ServerThread %s", t.getClientName());
     }
 
     public long getClientId() {
@@ -0,0 +1,216 @@
+package Project.Server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import Project.Common.Phase;
+
+/**
+ * Compact binary copy of what a restart would otherwise lose: every room, the
+ * phase and ready players of game rooms, and the next client id.
+ * <p>
+ * Taking one never stops the rooms. Each room publishes an immutable
+ * RoomState (rebuilt on its mailbox when its phase or ready flags change, so
+ * copy-on-write), and the snapshot just collects those along with the
+ * registry's current contents. A room changing mid-collection is captured as
+ * it was either before or after the change.
+ * </p>
+ * File layout: magic, version (byte), timestamp and next client id (longs),
+ * room count (int), then per room its name (UTF), whether it's a GameRoom and
+ * its phase ordinal (-1 for none) as bytes, and the ready players' names (int
+ * count plus UTF each); a CRC32C of everything before it closes the file. It's
+ * written to a temp file and moved over the old one so a crash mid-write
+ * leaves the previous snapshot intact.
+ */
+public class ServerSnapshot {
+    private static final int MAGIC = 0x49543131;// <-- "IT11"
+    private static final byte VERSION = 1;
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * One room as of its last change; immutable
+     */
+    public static class RoomState {
+        private final String name;
+        private final boolean isGameRoom;
+        private final Phase phase;
+        private final List<String> readyNames;
+
+        public RoomState(String name, boolean isGameRoom, Phase phase, List<String> readyNames) {
+            this.name = name;
+            this.isGameRoom = isGameRoom;
+            this.phase = phase;
+            this.readyNames = List.copyOf(readyNames);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isGameRoom() {
+            return isGameRoom;
+        }
+
+        /**
+         * null for rooms without game phases
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * Names of the players who were ready
+         */
+        public List<String> getReadyNames() {
+            return readyNames;
+        }
+    }
+
+    private final long takenAt;
+    private final long nextClientId;
+    private final List<RoomState> rooms;
+
+    public ServerSnapshot(long takenAt, long nextClientId, List<RoomState> rooms) {
+        this.takenAt = takenAt;
+        this.nextClientId = nextClientId;
+        this.rooms = rooms;
+    }
+
+    /**
+     * Collects each room's published state; safe from any thread
+     */
+    public static ServerSnapshot capture(long nextClientId, Collection<Room> rooms) {
+        List<RoomState> states = new ArrayList<RoomState>(rooms.size());
+        for (Room room : rooms) {
+            states.add(room.getState());
+        }
+        return new ServerSnapshot(System.currentTimeMillis(), nextClientId, states);
+    }
+
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public long getNextClientId() {
+        return nextClientId;
+    }
+
+    public List<RoomState> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * True if only the time differs; rooms keep handing out the same RoomState
+     * until they change, so comparing references is enough
+     */
+    public boolean isSameAs(ServerSnapshot other) {
+        if (other == null || nextClientId != other.nextClientId || rooms.size() != other.rooms.size()) {
+            return false;
+        }
+        for (int i = 0; i < rooms.size(); i++) {
+            if (rooms.get(i) != other.rooms.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + rooms.size() * 24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(takenAt);
+        out.writeLong(nextClientId);
+        out.writeInt(rooms.size());
+        for (RoomState room : rooms) {
+            out.writeUTF(room.getName());
+            out.writeBoolean(room.isGameRoom());
+            out.writeByte(room.getPhase() == null ? -1 : room.getPhase().ordinal());
+            out.writeInt(room.getReadyNames().size());
+            for (String name : room.getReadyNames()) {
+                out.writeUTF(name);
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static ServerSnapshot decode(byte[] data) throws IOException {
+        if (data.length < 4) {
+            throw new IOException("Snapshot is truncated");
+        }
+        int length = data.length - 4;
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        if (ByteBuffer.wrap(data, length, 4).getInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum doesn't match");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        long takenAt = in.readLong();
+        long nextClientId = in.readLong();
+        int count = in.readInt();
+        List<RoomState> rooms = new ArrayList<RoomState>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            boolean isGameRoom = in.readBoolean();
+            int phase = in.readByte();
+            int ready = in.readInt();
+            List<String> readyNames = new ArrayList<String>(Math.min(ready, 1 << 10));
+            for (int j = 0; j < ready; j++) {
+                readyNames.add(in.readUTF());
+            }
+            rooms.add(new RoomState(name, isGameRoom, phase >= 0 && phase < PHASES.length ? PHASES[phase] : null,
+                    readyNames));
+        }
+        return new ServerSnapshot(takenAt, nextClientId, rooms);
+    }
+
+    /**
+     * Replaces the file atomically
+     */
+    public static void write(Path file, byte[] encoded) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, encoded);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return null if there's no snapshot yet
+     */
+    public static ServerSnapshot read(Path file) throws IOException {
+        try {
+            return decode(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
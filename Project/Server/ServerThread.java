@@ -1,51 +1,114 @@
 package Project.Server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.util.List;
-import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import Project.Common.ConnectionPayload;
 import Project.Common.Constants;
+import Project.Common.FrameCompressor;
+import Project.Common.HistoryPayload;
 import Project.Common.Payload;
+import Project.Common.PayloadCodec;
 import Project.Common.PayloadType;
 import Project.Common.ReadyPayload;
 import Project.Common.RoomResultsPayload;
-import Project.Common.TextFX;
+import Project.Common.RoomSort;
 import Project.Common.TextFX.Color;
+import Project.Common.WireProtocol;
 
 /**
  * A server-side representation of a single client
+ * <br>
+ * Runnable rather than a Thread subclass so the Server can run the read loop on
+ * either a platform or a virtual thread
  */
-public class ServerThread extends Thread {
+public class ServerThread implements Runnable {
     private Socket client;
+    private NioConnection connection;// <-- set instead of client when using the NIO transport
     private String clientName;
     private boolean isRunning = false;
     private long clientId = Constants.DEFAULT_CLIENT_ID;
-    private ObjectOutputStream out;// exposed here for send()
+    private volatile StreamLifecycleManager legacyOut;// exposed here for send() (legacy clients)
+    private volatile DataOutputStream framedOut;// exposed here for send() (framed clients)
+    private volatile PayloadCodec codec;
+    private volatile FrameCompressor compressor;// <-- null unless compression was negotiated
+    // send() only enqueues here; the writer thread (or NIO event loop) owns the
+    // socket
+    private final OutboundQueue outbound = new OutboundQueue(ServerConfig.OUTBOUND_HIGH_WATER_MARK,
+            ServerConfig.OUTBOUND_CAPACITY, ServerConfig.OUTBOUND_POLICY);
+    private final WriteStats writeStats = new WriteStats();
     // private Server server;// ref to our server so we can call methods on it
     // more easily
-    private Room currentRoom;
-    private Logger logger = Logger.getLogger(ServerThread.class.getName());
+    private volatile Room currentRoom;
+    private static final AtomicReferenceFieldUpdater<ServerThread, Room> CURRENT_ROOM = AtomicReferenceFieldUpdater
+            .newUpdater(ServerThread.class, Room.class, "currentRoom");
+    private final long acceptedAt = System.nanoTime();// <-- sessions are created as soon as they're accepted
+    private final AtomicBoolean isAdmitted = new AtomicBoolean(false);// <-- set by the first CONNECT
+    private volatile long lastActivity = acceptedAt;// <-- bumped by every inbound payload
+    private volatile byte protocolVersion = 0;// <-- negotiated in the handshake, 0 for legacy streams
+    // requestId being answered on the current thread; only that thread stamps it
+    // onto the session's first reply so sends from other threads are never tagged
+    private static final ThreadLocal<Reply> reply = new ThreadLocal<Reply>();
+    private ServerLog logger = ServerLog.of(ServerThread.class);
+
+    private static class Reply {
+        private final ServerThread session;
+        private long requestId;
+
+        private Reply(ServerThread session, long requestId) {
+            this.session = session;
+            this.requestId = requestId;
+        }
+    }
 
     private void info(String message) {
-        logger.info(String.format("Thread[%s]: %s", getClientName(), message));
+        logger.info("Thread[%s]: %s", getClientName(), message);
     }
 
     public ServerThread(Socket myClient/* , Room room */) {
-        info("Thread created");
+        logger.info("Thread[%s]: Thread created", clientName);
         // get communication channels to single client
         this.client = myClient;
         // this.currentRoom = room;
 
     }
 
+    /**
+     * Used by the NIO transport; run() is never called since the connection's
+     * event loop delivers payloads through receive(). The transport hands the
+     * session to the connection (setSession()) before registering it.
+     */
+    public ServerThread(NioConnection connection) {
+        logger.info("Thread[%s]: Session created", clientName);
+        this.connection = connection;
+        isRunning = true;
+    }
+
+    /**
+     * For a stand-in that already has its id and name (RemoteSession); there's
+     * no transport and nothing is sent to the client from here
+     */
+    protected ServerThread(long clientId, String clientName, byte protocolVersion) {
+        this.clientId = clientId;
+        this.clientName = clientName;
+        this.protocolVersion = protocolVersion;
+        outbound.setOwner(clientName);
+    }
+
     protected void setClientId(long id) {
         clientId = id;
         if (id == Constants.DEFAULT_CLIENT_ID) {
-            logger.info(TextFX.colorize("Client id reset", Color.WHITE));
+            logger.info(Color.WHITE, "Thread[%s]: Client id reset", getClientName());
         }
         sendClientId(id);
     }
@@ -59,17 +122,134 @@ public class ServerThread extends Thread {
             return;
         }
         clientName = name;
+        outbound.setOwner(name);
     }
 
     protected String getClientName() {
         return clientName;
     }
 
-    protected synchronized Room getCurrentRoom() {
+    protected OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Number of payloads waiting to be written to this client
+     */
+    public int getOutboundDepth() {
+        return outbound.getDepth();
+    }
+
+    /**
+     * Bytes kept reachable by a legacy client's object stream handle table (0 for
+     * framed clients which don't keep one)
+     */
+    public long getRetainedStreamBytes() {
+        StreamLifecycleManager manager = legacyOut;
+        return manager == null ? 0 : manager.getRetainedBytes();
+    }
+
+    /**
+     * Only set for clients that negotiated compression
+     */
+    protected FrameCompressor getCompressor() {
+        return compressor;
+    }
+
+    protected void setCompressor(FrameCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    protected long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    /**
+     * @return true only for the first caller, who then admits the session
+     */
+    protected boolean markAdmitted() {
+        return isAdmitted.compareAndSet(false, true);
+    }
+
+    protected boolean isAdmitted() {
+        return isAdmitted.get();
+    }
+
+    /**
+     * System.nanoTime() of the last payload received (or of the connection if
+     * nothing has been received yet)
+     */
+    protected long getLastActivity() {
+        return lastActivity;
+    }
+
+    protected boolean supportsHeartbeat() {
+        return protocolVersion >= WireProtocol.HEARTBEAT_VERSION;
+    }
+
+    protected boolean supportsWhisper() {
+        return protocolVersion >= WireProtocol.WHISPER_VERSION;
+    }
+
+    protected boolean supportsHistory() {
+        return protocolVersion >= WireProtocol.HISTORY_VERSION;
+    }
+
+    protected void setProtocolVersion(byte protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * Legacy object stream clients don't know about heartbeats
+     */
+    protected boolean isLegacy() {
+        return legacyOut != null;
+    }
+
+    protected boolean isClosed() {
+        return outbound.isClosed();
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    /**
+     * Holds back flushing so everything sent until uncork() goes out together;
+     * calls nest
+     */
+    protected void cork() {
+        outbound.cork();
+    }
+
+    protected void uncork() {
+        if (outbound.uncork() && connection != null) {
+            connection.requestFlush();
+        }
+    }
+
+    /**
+     * Moves the client back to the lobby, e.g. when a host kicks them
+     */
+    protected void returnToLobby() {
+        Server.INSTANCE.joinRoom(Constants.LOBBY, this);
+    }
+
+    protected Room getCurrentRoom() {
         return currentRoom;
     }
 
-    protected synchronized void setCurrentRoom(Room room) {
+    /**
+     * Called by the room the client just joined (on its mailbox)
+     *
+     * @return the room the client was in before
+     */
+    protected Room swapCurrentRoom(Room room) {
+        // atomic since two rooms may finish joining the same client at once
+        return CURRENT_ROOM.getAndSet(this, room);
+    }
+
+    protected void setCurrentRoom(Room room) {
         if (room != null) {
             currentRoom = room;
         } else {
@@ -83,19 +263,67 @@ public class ServerThread extends Thread {
         cleanup();
     }
 
-    // send methods
-    protected boolean sendReadyState(long clientId, boolean isReady) {
+    /**
+     * Called by the HeartbeatMonitor when the client stopped answering pings;
+     * removes it from its room the same way a DISCONNECT would
+     */
+    protected void evictIdle() {
+        info("Client stopped responding, evicting");
+        Room room = currentRoom;
+        if (room != null) {
+            Room.disconnectClient(this, room);
+        } else {
+            disconnect();
+        }
+    }
+
+    // payload builders, shared with rooms that broadcast the same payload
+    protected static ReadyPayload readyPayload(long clientId, boolean isReady) {
         ReadyPayload rp = new ReadyPayload();
         rp.setReady(isReady);
         rp.setClientId(clientId);
-        return send(rp);
+        return rp;
     }
 
-    protected boolean sendPhase(String phase) {
+    protected static Payload phasePayload(String phase) {
         Payload p = new Payload();
         p.setPayloadType(PayloadType.PHASE);
         p.setMessage(phase);
-        return send(p);
+        return p;
+    }
+
+    protected static Payload messagePayload(long from, String message) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.MESSAGE);
+        // p.setClientName(from);
+        p.setClientId(from);
+        p.setMessage(message);
+        return p;
+    }
+
+    protected static Payload heartbeatPayload(PayloadType type) {
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        return p;
+    }
+
+    protected static ConnectionPayload connectionStatusPayload(long whoId, String whoName, boolean isConnected) {
+        ConnectionPayload p = new ConnectionPayload(isConnected);
+        // p.setClientName(who);
+        p.setClientId(whoId);
+        p.setClientName(whoName);
+        p.setMessage(isConnected ? "connected" : "disconnected");
+        return p;
+    }
+    // end payload builders
+
+    // send methods
+    protected boolean sendReadyState(long clientId, boolean isReady) {
+        return send(readyPayload(clientId, isReady));
+    }
+
+    protected boolean sendPhase(String phase) {
+        return send(phasePayload(phase));
     }
     protected boolean sendClientMapping(long id, String name) {
         ConnectionPayload cp = new ConnectionPayload();
@@ -105,6 +333,47 @@ public class ServerThread extends Thread {
         return send(cp);
     }
 
+    /**
+     * @param fromId   who wrote it
+     * @param withName the other party from this client's point of view
+     */
+    protected boolean sendWhisper(long fromId, String withName, String message) {
+        if (!supportsWhisper()) {
+            // older clients can't decode WHISPER, show it as a server message instead
+            return sendMessage(Constants.DEFAULT_CLIENT_ID,
+                    String.format(fromId == clientId ? "(to %s) %s" : "(whisper from %s) %s", withName, message));
+        }
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.WHISPER);
+        cp.setClientId(fromId);
+        cp.setClientName(withName);
+        cp.setMessage(message);
+        return send(cp);
+    }
+
+    /**
+     * Sends a room's catch-up history; callers cork the client first so older
+     * clients' one MESSAGE per entry still goes out in a single write
+     */
+    protected boolean sendHistory(HistoryPayload history) {
+        if (!supportsHistory()) {
+            for (int i = 0; i < history.size(); i++) {
+                // the room's own entries, and ones restored without a name, have none
+                String name = history.getClientNames().get(i);
+                long id = history.getClientIds().get(i);
+                if (name == null) {
+                    name = id == Constants.DEFAULT_CLIENT_ID ? "[Room]" : "#" + id;
+                }
+                if (!sendMessage(Constants.DEFAULT_CLIENT_ID,
+                        String.format("(earlier) %s: %s", name, history.getMessages().get(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return send(history);
+    }
+
     protected boolean sendJoinRoom(String roomName) {
         Payload p = new Payload();
         p.setPayloadType(PayloadType.JOIN_ROOM);
@@ -118,24 +387,36 @@ public class ServerThread extends Thread {
         cp.setClientName(clientName);
         return send(cp);
     }
-    private boolean sendListRooms(List<String> potentialRooms) {
+    /**
+     * @param page  null along with an error
+     * @param error why there's no page
+     */
+    private boolean sendListRooms(RoomDirectory.Page page, RoomSort sort, String error) {
         RoomResultsPayload rp = new RoomResultsPayload();
-        rp.setRooms(potentialRooms);
-        if (potentialRooms == null) {
-            rp.setMessage("Invalid limit, please choose a value between 1-100");
-        } else if (potentialRooms.size() == 0) {
+        rp.setSort(sort);
+        if (page == null) {
+            rp.setRooms(null);
+            rp.setMessage(error);
+            return send(rp);
+        }
+        for (RoomDirectory.Entry e : page.getEntries()) {
+            rp.getRooms().add(e.getName());
+            rp.getOccupancy().add(e.getMembers());
+            rp.getPhases().add(e.getPhase() == null ? null : e.getPhase().name());
+        }
+        rp.setCursor(page.getCursor());
+        if (page.getEntries().isEmpty()) {
             rp.setMessage("No rooms found matching your search criteria");
         }
         return send(rp);
     }
 
+    protected boolean sendPing() {
+        return send(heartbeatPayload(PayloadType.PING));
+    }
+
     public boolean sendMessage(long from, String message) {
-        Payload p = new Payload();
-        p.setPayloadType(PayloadType.MESSAGE);
-        // p.setClientName(from);
-        p.setClientId(from);
-        p.setMessage(message);
-        return send(p);
+        return send(messagePayload(from, message));
     }
 
     /**
@@ -148,58 +429,239 @@ public class ServerThread extends Thread {
      * @return
      */
     public boolean sendConnectionStatus(long whoId, String whoName, boolean isConnected) {
-        ConnectionPayload p = new ConnectionPayload(isConnected);
-        // p.setClientName(who);
-        p.setClientId(whoId);
-        p.setClientName(whoName);
-        p.setMessage(isConnected ? "connected" : "disconnected");
-        return send(p);
+        return send(connectionStatusPayload(whoId, whoName, isConnected));
     }
 
     private boolean send(Payload payload) {
+        Reply r = reply.get();
+        if (r != null && r.session == this && r.requestId != 0) {
+            payload.setRequestId(r.requestId);
+            r.requestId = 0;
+        }
+        return send(OutboundFrame.of(payload));
+    }
+
+    /**
+     * Queues a frame, which may be shared with other clients, for this client
+     * 
+     * @return false if the client is gone or was disconnected for falling behind
+     */
+    protected boolean send(OutboundFrame frame) {
         // added a boolean so we can see if the send was successful
+        switch (outbound.offer(frame)) {
+            case CLOSED:
+                return false;
+            case OVERFLOW:
+                info("Outbound queue overflowed, disconnecting slow client");
+                cleanup();
+                return false;
+            default:
+                if (connection != null && !outbound.isCorked()) {
+                    connection.requestFlush();
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Drains the outbound queue onto the socket (blocking transports only).
+     * <br>
+     * Payloads are written into a FLUSH_MAX_BYTES buffer which is flushed once
+     * the queue runs dry, so a burst of payloads turns into one socket write.
+     * While corked the flush waits up to FLUSH_MAX_LATENCY_MS for the rest of the
+     * batch.
+     */
+    private void writeLoop() {
+        long maxLatency = TimeUnit.MILLISECONDS.toNanos(ServerConfig.FLUSH_MAX_LATENCY_MS);
+        long firstUnflushedAt = 0;
+        boolean hasUnflushed = false;
         try {
-            out.writeObject(payload);
-            return true;
+            while (true) {
+                OutboundFrame frame;
+                if (!hasUnflushed) {
+                    if ((frame = outbound.take()) == null) {
+                        break;
+                    }
+                    firstUnflushedAt = System.nanoTime();
+                } else if ((frame = outbound.poll(maxLatency - (System.nanoTime() - firstUnflushedAt))) == null) {
+                    flushOut();
+                    hasUnflushed = false;
+                    continue;
+                }
+                if (framedOut != null) {
+                    framedOut.write(frame.encodedFor(codec, compressor));
+                } else {
+                    legacyOut.write(frame.getPayload());
+                }
+                writeStats.onPayload();
+                hasUnflushed = true;
+            }
         } catch (IOException e) {
             info("Error sending message to client (most likely disconnected)");
             // comment this out to inspect the stack trace
             // e.printStackTrace();
             cleanup();
-            return false;
-        } catch (NullPointerException ne) {
-            info("Message was attempted to be sent before outbound stream was opened");
-            return true;// true since it's likely pending being opened
+        } catch (InterruptedException e) {
+            info("Writer interrupted");
         }
     }
 
+    private void flushOut() throws IOException {
+        if (framedOut != null) {
+            framedOut.flush();
+        } else {
+            legacyOut.flush();
+        }
+        writeStats.onFlush();
+    }
+
+    /**
+     * Starts the writer on the same kind of thread (platform/virtual) as the reader
+     */
+    private void startWriter() {
+        Thread.Builder builder = Thread.currentThread().isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform();
+        builder.name("writer-" + Thread.currentThread().getName()).start(this::writeLoop);
+    }
+
     // end send methods
     @Override
     public void run() {
         info("Thread starting");
-        try (ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());) {
-            this.out = out;
+        try (BufferedInputStream in = new BufferedInputStream(client.getInputStream());) {
+            // peek at the first bytes to tell legacy object streams from framed clients
+            in.mark(WireProtocol.HANDSHAKE_LENGTH);
+            int b0 = in.read();
+            int b1 = in.read();
+            in.reset();
+            if (WireProtocol.isLegacyStream(b0, b1)) {
+                readLegacy(in);
+            } else {
+                readFramed(in);
+            }
+        } catch (IOException e) {
+            // happens when client disconnects
+            info("Client disconnected");
+        } catch (Exception e) {
+            logger.severe("Thread[%s]: Connection failed", getClientName(), e);
+        } finally {
+            isRunning = false;
+            info("Exited thread loop. Cleaning up connection");
+            cleanup();
+        }
+    }
+
+    private void readLegacy(InputStream rawIn) throws IOException, ClassNotFoundException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new CountingOutputStream(client.getOutputStream(), writeStats), ServerConfig.FLUSH_MAX_BYTES));
+                ObjectInputStream in = new ObjectInputStream(rawIn);) {
+            out.flush();// <-- the client is waiting on our stream header
+            this.legacyOut = new StreamLifecycleManager(out, writeStats, ServerConfig.STREAM_RESET_OBJECTS,
+                    ServerConfig.STREAM_RESET_BYTES);
             isRunning = true;
+            startWriter();
             Payload fromClient;
             while (isRunning && // flag to let us easily control the loop
                     (fromClient = (Payload) in.readObject()) != null // reads an object from inputStream (null would
                                                                      // likely mean a disconnect)
             ) {
+                receive(fromClient);
+            } // close while loop
+        }
+    }
 
-                info("Received from client: " + fromClient);
-                processPayload(fromClient);
+    private void readFramed(InputStream rawIn) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CountingOutputStream(client.getOutputStream(), writeStats), ServerConfig.FLUSH_MAX_BYTES));
+                DataInputStream in = new DataInputStream(rawIn);) {
+            byte[] handshake = new byte[WireProtocol.HANDSHAKE_LENGTH];
+            in.readFully(handshake);
+            if (!WireProtocol.isHandshake(handshake)) {
+                throw new IOException("Unrecognized handshake");
+            }
+            PayloadCodec codec = WireProtocol.negotiate(handshake);
+            FrameCompressor compressor = ServerConfig.compressorFor(handshake);
+            out.write(WireProtocol.handshake(WireProtocol.negotiateVersion(handshake), codec.getId(),
+                    compressor != null));
+            out.flush();
+            this.protocolVersion = WireProtocol.negotiateVersion(handshake);
+            this.codec = codec;
+            this.compressor = compressor;
+            this.framedOut = out;
+            isRunning = true;
+            startWriter();
+            while (isRunning) {
+                byte[] frame = WireProtocol.readFrame(in, compressor);
+                receive(codec.decode(frame, 0, frame.length));
+            }
+        }
+    }
 
-            } // close while loop
-        } catch (Exception e) {
-            // happens when client disconnects
-            e.printStackTrace();
-            info("Client disconnected");
+    /**
+     * Entry point for a payload read by either transport
+     */
+    protected void receive(Payload fromClient) {
+        lastActivity = System.nanoTime();
+        // formatted by the log writer, if INFO is on at all
+        logger.info("Thread[%s]: Received from client: %s", getClientName(), fromClient);
+        if (fromClient.getRequestId() == 0) {
+            processPayload(fromClient);
+            return;
+        }
+        replying(fromClient.getRequestId(), () -> processPayload(fromClient));
+    }
+
+    /**
+     * Runs work that answers a request; the first payload it sends this session
+     * carries the requestId. Work handed to another thread takes the id along
+     * with deferReply() and answers there through its own replying() call.
+     *
+     * @param requestId 0 just runs the work
+     */
+    protected void replying(long requestId, Runnable work) {
+        if (requestId == 0) {
+            work.run();
+            return;
+        }
+        Reply outer = reply.get();
+        Reply r = new Reply(this, requestId);
+        reply.set(r);
+        try {
+            work.run();
+            if (r.requestId != 0) {
+                // nothing was sent back directly (e.g. a broadcast MESSAGE), acknowledge
+                // with a bare PONG so the client's request still completes
+                send(heartbeatPayload(PayloadType.PONG));
+            }
         } finally {
-            isRunning = false;
-            info("Exited thread loop. Cleaning up connection");
-            cleanup();
+            reply.set(outer);
+        }
+    }
+
+    /**
+     * Takes over the request being answered on this thread so it's answered later
+     * (and elsewhere) instead of acknowledged now
+     *
+     * @return the requestId to pass to replying(), 0 if there's none
+     */
+    protected long deferReply() {
+        Reply r = reply.get();
+        if (r == null || r.session != this) {
+            return 0;
         }
+        long id = r.requestId;
+        r.requestId = 0;
+        return id;
+    }
+
+    /**
+     * Called by the NIO transport once its channel has closed
+     */
+    protected void onTransportClosed() {
+        isRunning = false;
+        logStats();
+        outbound.close();
+        Server.INSTANCE.onDisconnected(this);
+        info("Client disconnected");
     }
 
     /**
@@ -208,13 +670,28 @@ public class ServerThread extends Thread {
      * @param p
      */
     private void processPayload(Payload p) {
-        switch (p.getPayloadType()) {
+        PayloadType type = p.getPayloadType();
+        if (!isAdmitted() && type != PayloadType.CONNECT && type != PayloadType.PING
+                && type != PayloadType.PONG) {
+            logger.info("Thread[%s]: Ignoring %s from a client that hasn't sent CONNECT", getClientName(), type);
+            return;
+        }
+        switch (type) {
             case CONNECT:
+                if (isAdmitted()) {
+                    // the name is indexed for whispers, don't let it change underneath
+                    info("Ignoring repeated CONNECT");
+                    break;
+                }
                 try {
                     ConnectionPayload cp = (ConnectionPayload) p;
                     setClientName(cp.getClientName());
+                    if (getClientName() != null) {
+                        // no queue, admission (id + lobby) happens right here
+                        Server.INSTANCE.admit(this);
+                    }
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    logger.severe("Thread[%s]: Couldn't admit the client", getClientName(), e);
                 }
 
                 break;
@@ -240,24 +717,44 @@ public class ServerThread extends Thread {
             case LIST_ROOMS:
                 String searchString = p.getMessage() == null ? "" : p.getMessage();
                 int limit = 10;
-                try {
+                RoomSort sort = RoomSort.NAME;
+                String cursor = null;
+                if (p instanceof RoomResultsPayload) {// <-- older clients send a plain Payload, use the defaults
                     RoomResultsPayload rp = ((RoomResultsPayload) p);
                     limit = rp.getLimit();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    sort = rp.getSort();
+                    cursor = rp.getCursor();
+                }
+                try {
+                    RoomDirectory.Page page = Room.listRooms(searchString, sort, cursor, limit);
+                    this.sendListRooms(page, sort,
+                            page == null ? "Invalid limit, please choose a value between 1-100" : null);
+                } catch (IllegalArgumentException e) {
+                    this.sendListRooms(null, sort, "Invalid cursor, start again from the first page");
                 }
-                List<String> potentialRooms = Room.listRooms(searchString, limit);
-                this.sendListRooms(potentialRooms);
                 break;
             case READY:
-                try {
+                if (currentRoom instanceof GameRoom) {
                     ((GameRoom) currentRoom).setReady(this);
-                } catch (Exception e) {
-                    e.printStackTrace();
+                } else {
                     this.sendMessage(Constants.DEFAULT_CLIENT_ID,
                             "You can only use the /ready commmand in a GameRoom and not the Lobby");
                 }
 
+                break;
+            case WHISPER:
+                try {
+                    ConnectionPayload wp = (ConnectionPayload) p;
+                    Server.INSTANCE.whisper(this, wp.getClientId(), wp.getClientName(), wp.getMessage());
+                } catch (Exception e) {
+                    logger.severe("Thread[%s]: Whisper failed", getClientName(), e);
+                }
+                break;
+            case PING:
+                send(heartbeatPayload(PayloadType.PONG));
+                break;
+            case PONG:
+                // nothing to do, receive() already counted it as activity
                 break;
             default:
                 break;
@@ -266,8 +763,33 @@ public class ServerThread extends Thread {
 
     }
 
+    /**
+     * Logs the connection's stats once, before its outbound queue is closed
+     */
+    private void logStats() {
+        if (!outbound.isClosed()) {
+            logger.info("Thread[%s]: Write stats: %s retained stream bytes[%s]", getClientName(), writeStats,
+                    getRetainedStreamBytes());
+            if (compressor != null) {
+                logger.info("Thread[%s]: %s", getClientName(), compressor.getStats());
+            }
+        }
+    }
+
     private void cleanup() {
         info("Thread cleanup() start");
+        logStats();
+        outbound.close();
+        Server.INSTANCE.onDisconnected(this);
+        FrameCompressor c = compressor;
+        if (c != null) {
+            c.close();// <-- frees its native zlib memory now rather than at some later GC
+        }
+        if (connection != null) {
+            connection.close();
+            info("Thread cleanup() complete");
+            return;
+        }
         try {
             client.close();
         } catch (IOException e) {
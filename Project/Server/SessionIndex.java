@@ -0,0 +1,61 @@
+package Project.Server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every admitted session by client id and by case-insensitive name, so a
+ * single client can be reached without going through the rooms.
+ * <p>
+ * Names aren't unique, so a name maps to every session currently using it.
+ * All operations are safe to call from any thread without an outside lock.
+ * </p>
+ */
+public class SessionIndex {
+    private final ConcurrentHashMap<Long, ServerThread> byId = new ConcurrentHashMap<Long, ServerThread>();
+    private final ConcurrentHashMap<String, Set<ServerThread>> byName = new ConcurrentHashMap<String, Set<ServerThread>>();
+
+    /**
+     * Called once the session has its id and name
+     */
+    public void add(ServerThread session) {
+        byId.put(session.getClientId(), session);
+        // added inside compute() so remove() can't drop the set between getting it and adding to it
+        byName.compute(RoomRegistry.normalize(session.getClientName()), (n, sessions) -> {
+            sessions = sessions == null ? ConcurrentHashMap.newKeySet() : sessions;
+            sessions.add(session);
+            return sessions;
+        });
+    }
+
+    /**
+     * Safe to call more than once, or for a session that was never added
+     */
+    public void remove(ServerThread session) {
+        if (!byId.remove(session.getClientId(), session)) {
+            return;
+        }
+        byName.computeIfPresent(RoomRegistry.normalize(session.getClientName()), (n, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    public ServerThread get(long clientId) {
+        return byId.get(clientId);
+    }
+
+    /**
+     * @return every session using the name (case-insensitive), empty if none
+     */
+    public Collection<ServerThread> named(String name) {
+        Set<ServerThread> sessions = byName.get(RoomRegistry.normalize(name));
+        return sessions == null ? List.of() : sessions;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
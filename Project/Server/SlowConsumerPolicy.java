@@ -0,0 +1,22 @@
+package Project.Server;
+
+/**
+ * What an OutboundQueue does with new payloads once it's past its high-water
+ * mark
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Drop chat messages; state changes (phase, ready, room changes) are still
+     * queued
+     */
+    DROP,
+    /**
+     * Merge chat messages from the same sender and replace stale phase/ready
+     * updates already in the queue
+     */
+    COALESCE,
+    /**
+     * Disconnect the client
+     */
+    DISCONNECT
+}
@@ -0,0 +1,78 @@
+package Project.Server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import Project.Common.Payload;
+
+/**
+ * Owns the long-lived ObjectOutputStream of a legacy (raw object stream)
+ * client.
+ * <p>
+ * An ObjectOutputStream keeps a handle to every object it has written so it
+ * can send back-references, which means a connection that stays up for days
+ * keeps every payload it ever sent reachable. Once a count or size limit is
+ * hit this calls reset(), which clears our table and writes a TC_RESET marker
+ * in-band so the client's ObjectInputStream clears its table at exactly the
+ * same point; nothing queued before or after is affected.
+ * </p>
+ * Framed clients don't need this since every frame is encoded on its own.
+ */
+public class StreamLifecycleManager {
+    private final ObjectOutputStream out;
+    private final WriteStats stats;
+    private final int maxObjects;
+    private final long maxBytes;
+    private int objectsSinceReset = 0;
+    private long bytesAtReset = 0;
+    private long resets = 0;
+    private ServerLog logger = ServerLog.of(StreamLifecycleManager.class);
+
+    /**
+     * @param out   the stream to manage
+     * @param stats stats of the connection, used to know how much has been
+     *              written since the last reset
+     */
+    public StreamLifecycleManager(ObjectOutputStream out, WriteStats stats, int maxObjects, long maxBytes) {
+        this.out = out;
+        this.stats = stats;
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+        this.bytesAtReset = stats.getBytes();
+    }
+
+    /**
+     * Only called from the connection's writer thread
+     */
+    public void write(Payload payload) throws IOException {
+        out.writeObject(payload);
+        objectsSinceReset++;
+        if (objectsSinceReset >= maxObjects || getRetainedBytes() >= maxBytes) {
+            reset();
+        }
+    }
+
+    private void reset() throws IOException {
+        out.reset();
+        resets++;
+        logger.fine("Reset object stream after %s objects, ~%s bytes", objectsSinceReset, getRetainedBytes());
+        objectsSinceReset = 0;
+        bytesAtReset = stats.getBytes();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Approximate size of what the handle table is keeping alive: bytes written
+     * to the socket since the last reset (anything still buffered isn't counted)
+     */
+    public long getRetainedBytes() {
+        return stats.getBytes() - bytesAtReset;
+    }
+
+    public long getResets() {
+        return resets;
+    }
+}
@@ -0,0 +1,178 @@
+package Project.Server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel: one thread and a ring of buckets handle any number of
+ * timeouts.
+ * <p>
+ * Scheduling is O(1) (an enqueue), and each tick only looks at the one bucket
+ * the hand points at. Timeouts further out than one revolution just sit in
+ * their bucket counting down rounds. Precision is one tick, which is plenty
+ * for heartbeats.
+ * </p>
+ * Tasks run on the wheel thread so they must be quick; hand anything slow off
+ * to another thread.
+ */
+public class TimingWheel {
+    /**
+     * Handle for a scheduled task
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+        private volatile boolean isCancelled = false;
+        // bucket links, only touched by the wheel thread
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * The wheel unlinks cancelled timeouts the next time it reaches them
+         */
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list so removal is O(1)
+     */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.prev = t.prev;
+            } else {
+                tail = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime;
+    private volatile long currentTick = 0;
+    private volatile boolean isRunning = true;
+    private final Thread thread;
+    private ServerLog logger = ServerLog.of(TimingWheel.class);
+
+    /**
+     * @param name         thread name
+     * @param tickDuration resolution of the wheel
+     * @param unit         unit of tickDuration
+     * @param wheelSize    number of buckets, rounded up to a power of 2
+     */
+    public TimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        mask = size - 1;
+        startTime = System.nanoTime();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs task on the wheel thread after roughly delay; safe from any thread
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long ticks = Math.max(1, (unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+        Timeout t = new Timeout(task, currentTick + ticks);
+        pending.add(t);
+        return t;
+    }
+
+    public void shutdown() {
+        isRunning = false;
+    }
+
+    private void transferPending() {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.isCancelled) {
+                continue;
+            }
+            long ticks = Math.max(t.deadlineTick, currentTick) - currentTick;
+            t.remainingRounds = ticks / buckets.length;
+            buckets[(int) ((currentTick + ticks) & mask)].add(t);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout t = bucket.head;
+        while (t != null) {
+            if (t.isCancelled) {
+                t = bucket.remove(t);
+            } else if (t.remainingRounds > 0) {
+                t.remainingRounds--;
+                t = t.next;
+            } else {
+                Timeout expired = t;
+                t = bucket.remove(t);
+                try {
+                    expired.task.run();
+                } catch (Exception e) {
+                    logger.severe("Timing wheel task failed on %s", thread.getName(), e);
+                }
+            }
+        }
+    }
+
+    private void run() {
+        while (isRunning) {
+            long deadline = startTime + (currentTick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            currentTick++;
+            transferPending();
+            expire(buckets[(int) (currentTick & mask)]);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package Project.Server;
+
+/**
+ * How the server handles client sockets, chosen at startup
+ */
+public enum TransportMode {
+    /**
+     * One ServerThread per client doing blocking reads (the original behavior)
+     */
+    BLOCKING,
+    /**
+     * Same blocking ServerThread code, but each client runs on a virtual thread
+     */
+    VIRTUAL,
+    /**
+     * A few NioEventLoops multiplexing every client over Selectors
+     */
+    NIO
+}
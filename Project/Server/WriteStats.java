@@ -0,0 +1,70 @@
+package Project.Server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how payloads turn into socket writes so the flush policy can be tuned.
+ * <br>
+ * Each connection has its own instance which also adds into TOTAL.
+ */
+public class WriteStats {
+    public static final WriteStats TOTAL = new WriteStats(null);
+    private final WriteStats parent;
+    private final LongAdder payloads = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder syscalls = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public WriteStats() {
+        this(TOTAL);
+    }
+
+    private WriteStats(WriteStats parent) {
+        this.parent = parent;
+    }
+
+    protected void onPayload() {
+        payloads.increment();
+        if (parent != null) {
+            parent.onPayload();
+        }
+    }
+
+    protected void onFlush() {
+        flushes.increment();
+        if (parent != null) {
+            parent.onFlush();
+        }
+    }
+
+    protected void onSyscall(int written) {
+        syscalls.increment();
+        bytes.add(written);
+        if (parent != null) {
+            parent.onSyscall(written);
+        }
+    }
+
+    public long getPayloads() {
+        return payloads.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getSyscalls() {
+        return syscalls.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        long p = getPayloads();
+        return String.format("payloads[%s] flushes[%s] writes[%s] bytes[%s] writes/payload[%.2f]", p, getFlushes(),
+                getSyscalls(), getBytes(), p == 0 ? 0.0 : (double) getSyscalls() / p);
+    }
+}
@@ -1,5 +1,6 @@
 wd=$(pwd)
 cd $1
 find . -name "*.java" > sources.txt
-javac @sources.txt
+# the server uses virtual threads and Thread.ofPlatform()/threadId(), so Java 21+
+javac --release 21 @sources.txt
 cd "$wd"
\ No newline at end of file
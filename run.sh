@@ -1,10 +1,37 @@
+# needs Java 21+, same as build.sh
 if [ "$2" = "server" ];
 then
-	java $1.Server.Server
+	# optional: port, transport (blocking|virtual|nio), io threads
+	java $1.Server.Server "${@:3}"
 elif [ "$2" = "client" ];
 then
 	java $1.Client.Client
     # In Milestone3 changes Client to ClientUI
+elif [ "$2" = "loadgen" ];
+then
+	# host port sessions rooms actionsPerSecPerSession durationSec [readyPercent] [hopPercent]
+	java $1.Client.LoadGenerator "${@:3}"
+elif [ "$2" = "cluster" ];
+then
+	# comma separated client ports, one localhost node each (links on port+1000), then
+	# optional: transport (blocking|virtual|nio), io threads
+	IFS=',' read -ra ports <<< "$3"
+	nodes=""
+	for i in "${!ports[@]}"; do
+		nodes="$nodes$((i+1))=localhost:$((ports[i]+1000)),"
+	done
+	trap 'kill $(jobs -p) 2>/dev/null' EXIT
+	for i in "${!ports[@]}"; do
+		# each node keeps its own chat log and snapshot, if those are enabled
+		java -Dit114.cluster.nodeId=$((i+1)) -Dit114.cluster.nodes="$nodes" \
+			-Dit114.chatlog.dir=chatlog-$((i+1)) -Dit114.snapshot.file=server-$((i+1)).snapshot \
+			$1.Server.Server "${ports[i]}" "${@:4}" &
+	done
+	wait
+elif [ "$2" = "chatlog" ];
+then
+	# optional: log dir, room
+	java $1.Server.ChatLogReader "${@:3}"
 else
-	echo "Must specify client or server"
+	echo "Must specify client, server, cluster, loadgen or chatlog"
 fi
\ No newline at end of file